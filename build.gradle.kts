@@ -37,6 +37,12 @@ dependencies {
     // Implementation Dependencies (to be shaded)
     implementation("com.zaxxer:HikariCP:${properties.getProperty("hikariVersion")}")
     implementation("com.h2database:h2:${properties.getProperty("h2DriverVersion")}")
+
+    // Test Dependencies
+    testImplementation(platform("org.junit:junit-bom:${properties.getProperty("junitVersion")}"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+    testImplementation("org.yaml:snakeyaml:${properties.getProperty("snakeYamlVersion")}") // Provided by the server at runtime
 }
 
 tasks {
@@ -54,6 +60,11 @@ tasks {
         relocate("org.h2", "com.minekarta.kec.libs.h2")
     }
 
+    // Run the unit tests on the JUnit Platform
+    test {
+        useJUnitPlatform()
+    }
+
     // Set shadowJar as the default build task
     build {
         dependsOn(shadowJar)
@@ -8,6 +8,7 @@ import com.minekarta.kec.placeholder.KecPlaceholderExpansion;
 import com.minekarta.kec.service.KartaEmeraldServiceImpl;
 import com.minekarta.kec.storage.DefaultEconomyDataHandler;
 import com.minekarta.kec.storage.EconomyDataHandler;
+import com.minekarta.kec.storage.StorageListener;
 import com.minekarta.kec.storage.StorageManager;
 import com.minekarta.kec.util.MessageUtil;
 import org.bukkit.Bukkit;
@@ -99,8 +100,17 @@ public class KartaEmeraldCurrencyPlugin extends JavaPlugin {
             this.storageManager = new StorageManager(this);
             this.storageManager.initialize();
 
-            Executor asyncExecutor = (runnable) -> Bukkit.getScheduler().runTaskAsynchronously(this, runnable);
-            this.economyDataHandler = new DefaultEconomyDataHandler(this.storageManager, asyncExecutor);
+            Executor asyncExecutor = this.storageManager.getExecutor();
+            int lockStripes = getConfig().getInt("performance.lock-stripes", DefaultEconomyDataHandler.DEFAULT_LOCK_STRIPES);
+            String modeStr = getConfig().getString("performance.concurrency-mode", "LOCKING").toUpperCase();
+            DefaultEconomyDataHandler.ConcurrencyMode concurrencyMode;
+            try {
+                concurrencyMode = DefaultEconomyDataHandler.ConcurrencyMode.valueOf(modeStr);
+            } catch (IllegalArgumentException e) {
+                getLogger().warning("Invalid concurrency mode '" + modeStr + "' in config.yml. Defaulting to LOCKING.");
+                concurrencyMode = DefaultEconomyDataHandler.ConcurrencyMode.LOCKING;
+            }
+            this.economyDataHandler = new DefaultEconomyDataHandler(this.storageManager, asyncExecutor, lockStripes, concurrencyMode);
             return true;
         } catch (Exception e) {
             getLogger().severe("Could not initialize the storage manager.");
@@ -146,6 +156,7 @@ public class KartaEmeraldCurrencyPlugin extends JavaPlugin {
     private void setupListeners() {
         Bukkit.getPluginManager().registerEvents(new com.minekarta.kec.gui.GuiListener(), this);
         Bukkit.getPluginManager().registerEvents(this.chatInputManager, this);
+        Bukkit.getPluginManager().registerEvents(new StorageListener(this.storageManager), this);
     }
 
     public static KartaEmeraldCurrencyPlugin getInstance() {
@@ -156,6 +167,10 @@ public class KartaEmeraldCurrencyPlugin extends JavaPlugin {
         return service;
     }
 
+    public StorageManager getStorageManager() {
+        return storageManager;
+    }
+
     public EconomyDataHandler getEconomyDataHandler() {
         return economyDataHandler;
     }
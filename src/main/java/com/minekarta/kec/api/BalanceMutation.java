@@ -0,0 +1,115 @@
+package com.minekarta.kec.api;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * A single change to a player's bank balance, for use with {@link KartaEmeraldService#applyBatch(java.util.List)}.
+ * <p>
+ * Example usage:
+ * <pre>{@code
+ * List<BalanceMutation> payouts = new ArrayList<>();
+ * for (Player player : Bukkit.getOnlinePlayers()) {
+ *     payouts.add(BalanceMutation.deposit(player.getUniqueId(), 10));
+ * }
+ * service.applyBatch(payouts);
+ * }</pre>
+ */
+public final class BalanceMutation {
+
+    /**
+     * The kind of change a mutation makes.
+     */
+    public enum Type {
+        /**
+         * Adds the amount to the balance, creating the account if needed.
+         */
+        DEPOSIT,
+
+        /**
+         * Removes the amount from the balance. The balance never goes below zero.
+         */
+        REMOVE,
+
+        /**
+         * Removes the amount from the balance only if the balance covers it; otherwise the balance is left untouched.
+         */
+        WITHDRAW
+    }
+
+    private final UUID playerId;
+    private final Type type;
+    private final long amount;
+
+    private BalanceMutation(@NotNull UUID playerId, @NotNull Type type, long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException("Amount must not be negative: " + amount);
+        }
+        this.playerId = playerId;
+        this.type = type;
+        this.amount = amount;
+    }
+
+    /**
+     * Creates a mutation that adds an amount to a player's balance.
+     *
+     * @param playerId The UUID of the player.
+     * @param amount The amount to add. Must not be negative.
+     * @return The mutation.
+     */
+    @NotNull
+    public static BalanceMutation deposit(@NotNull UUID playerId, long amount) {
+        return new BalanceMutation(playerId, Type.DEPOSIT, amount);
+    }
+
+    /**
+     * Creates a mutation that removes an amount from a player's balance, stopping at zero.
+     *
+     * @param playerId The UUID of the player.
+     * @param amount The amount to remove. Must not be negative.
+     * @return The mutation.
+     */
+    @NotNull
+    public static BalanceMutation remove(@NotNull UUID playerId, long amount) {
+        return new BalanceMutation(playerId, Type.REMOVE, amount);
+    }
+
+    /**
+     * Creates a mutation that removes an amount from a player's balance only if they can afford it.
+     *
+     * @param playerId The UUID of the player.
+     * @param amount The amount to withdraw. Must not be negative.
+     * @return The mutation.
+     */
+    @NotNull
+    public static BalanceMutation withdraw(@NotNull UUID playerId, long amount) {
+        return new BalanceMutation(playerId, Type.WITHDRAW, amount);
+    }
+
+    /**
+     * Gets the UUID of the player whose balance changes.
+     * @return The player's UUID.
+     */
+    @NotNull
+    public UUID getPlayerId() {
+        return playerId;
+    }
+
+    /**
+     * Gets the kind of change.
+     * @return The mutation type.
+     */
+    @NotNull
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the amount of the change.
+     * @return The amount.
+     */
+    public long getAmount() {
+        return amount;
+    }
+}
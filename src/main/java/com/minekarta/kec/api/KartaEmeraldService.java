@@ -4,6 +4,10 @@ import org.bukkit.OfflinePlayer;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
@@ -52,6 +56,16 @@ public interface KartaEmeraldService {
      */
     CompletableFuture<Long> getBankBalance(@NotNull UUID playerId);
 
+    /**
+     * Gets the virtual bank balances of several players in one call, e.g. for every online player
+     * on a scoreboard refresh. Much cheaper than calling {@link #getBankBalance(UUID)} once per player.
+     *
+     * @param playerIds The UUIDs of the players.
+     * @return A CompletableFuture resolving to a map of every requested UUID to its bank balance.
+     *         Players without an account map to 0.
+     */
+    CompletableFuture<Map<UUID, Long>> getBankBalances(@NotNull Collection<UUID> playerIds);
+
     /**
      * Gets the player's physical wallet balance (number of emeralds in inventory).
      * This is a synchronous operation as it queries the live inventory.
@@ -118,6 +132,17 @@ public interface KartaEmeraldService {
      */
     CompletableFuture<Boolean> removeBankBalance(@NotNull UUID playerId, long delta);
 
+    /**
+     * Applies many balance changes at once, e.g. to pay out rewards to every online player.
+     * Changes are grouped by player and written together, which is far cheaper than calling
+     * {@link #addBankBalance(UUID, long)} once per player. Changes to the same player are applied in list order.
+     *
+     * @param mutations The balance changes to apply.
+     * @return A CompletableFuture resolving to the new balance after each change, in list order,
+     *         or an empty value where a {@link BalanceMutation.Type#WITHDRAW withdrawal} was refused for insufficient funds.
+     */
+    CompletableFuture<List<OptionalLong>> applyBatch(@NotNull List<BalanceMutation> mutations);
+
     /**
      * Provides access to the currency formatting utility.
      *
@@ -136,6 +161,24 @@ public interface KartaEmeraldService {
      */
     CompletableFuture<java.util.Map<java.util.UUID, Long>> getTopBalances(int limit, int offset);
 
+    /**
+     * Gets a player's position on the bank balance leaderboard.
+     *
+     * @param playerId The UUID of the player.
+     * @return A CompletableFuture that resolves to the player's 1-based rank, or 0 if the account doesn't exist.
+     */
+    CompletableFuture<Integer> getRank(@NotNull UUID playerId);
+
+    /**
+     * Gets the leaderboard entries surrounding a player, including the player.
+     * The map is sorted by balance in descending order.
+     *
+     * @param playerId The UUID of the player.
+     * @param radius The number of entries to include above and below the player.
+     * @return A CompletableFuture that resolves to a map of player UUIDs to their balances.
+     */
+    CompletableFuture<java.util.Map<java.util.UUID, Long>> getNearbyBalances(@NotNull UUID playerId, int radius);
+
     /**
      * Gets the total number of accounts in the database.
      *
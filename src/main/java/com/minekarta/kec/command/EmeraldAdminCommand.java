@@ -2,6 +2,13 @@ package com.minekarta.kec.command;
 
 import com.minekarta.kec.KartaEmeraldCurrencyPlugin;
 import com.minekarta.kec.api.KartaEmeraldService;
+import com.minekarta.kec.storage.AccountMutationQueues;
+import com.minekarta.kec.storage.DefaultEconomyDataHandler;
+import com.minekarta.kec.storage.StorageExecutor;
+import com.minekarta.kec.storage.StorageManager.StorageType;
+import com.minekarta.kec.storage.StorageMigration;
+import com.minekarta.kec.storage.StripedLocks;
+import com.minekarta.kec.storage.provider.FileStorageProvider;
 import com.minekarta.kec.util.MessageUtil;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
@@ -16,6 +23,7 @@ import org.jetbrains.annotations.Nullable;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -25,6 +33,7 @@ public class EmeraldAdminCommand implements CommandExecutor, TabCompleter {
 
     private final KartaEmeraldCurrencyPlugin plugin;
     private final KartaEmeraldService service;
+    private final AtomicBoolean migrationRunning = new AtomicBoolean();
 
     /**
      * Constructs a new EmeraldAdminCommand.
@@ -55,6 +64,8 @@ public class EmeraldAdminCommand implements CommandExecutor, TabCompleter {
 
         switch (subCommand) {
             case "reload" -> handleReload(sender);
+            case "stats" -> handleStats(sender);
+            case "migrate" -> handleMigrate(sender, label, args);
             default -> MessageUtil.sendMessage(sender, "invalid-usage", MessageUtil.placeholder("usage", "/" + label + " help"));
         }
 
@@ -106,11 +117,104 @@ public class EmeraldAdminCommand implements CommandExecutor, TabCompleter {
         MessageUtil.sendMessage(sender, "reload-success");
     }
 
+    private void handleStats(CommandSender sender) {
+        if (!sender.hasPermission("kec.admin.stats")) {
+            MessageUtil.sendMessage(sender, "no-permission");
+            return;
+        }
+        MessageUtil.sendRawMessage(sender, plugin.getMessagesConfig().getString("stats-header", ""));
+
+        StorageExecutor executor = plugin.getStorageManager().getExecutor();
+        if (executor != null) {
+            sendStat(sender, "Storage executor", executor.getType());
+            sendStat(sender, "Queued storage tasks", executor.getQueueDepth());
+            sendStat(sender, "Active storage tasks", executor.getActiveCount());
+            sendStat(sender, "Completed storage tasks", executor.getCompletedCount());
+            sendStat(sender, "Rejected storage tasks", executor.getRejectedCount());
+        }
+
+        if (plugin.getEconomyDataHandler() instanceof DefaultEconomyDataHandler handler) {
+            StripedLocks locks = handler.getAccountLocks();
+            long[] contention = locks.getContentionCounts();
+            long total = 0;
+            int hottest = 0;
+            for (int i = 0; i < contention.length; i++) {
+                total += contention[i];
+                if (contention[i] > contention[hottest]) {
+                    hottest = i;
+                }
+            }
+            sendStat(sender, "Lock stripes", locks.getStripeCount());
+            sendStat(sender, "Contended lock acquisitions", total);
+            sendStat(sender, "Most contended stripe", "#" + hottest + " (" + contention[hottest] + ")");
+
+            AccountMutationQueues queues = handler.getMutationQueues();
+            if (queues != null) {
+                sendStat(sender, "Queued account mutations", queues.getQueuedCount());
+            }
+        }
+
+        if (plugin.getStorageManager().getProvider() instanceof FileStorageProvider fileStorage) {
+            sendStat(sender, "Unsaved player files", fileStorage.getSaveBacklog());
+            sendStat(sender, "Last auto-save", fileStorage.getLastSaveFileCount() + " files in " + fileStorage.getLastSaveMillis() + " ms");
+        }
+    }
+
+    private void handleMigrate(CommandSender sender, String label, String[] args) {
+        if (!sender.hasPermission("kec.admin.migrate")) {
+            MessageUtil.sendMessage(sender, "no-permission");
+            return;
+        }
+        StorageType from = args.length == 3 ? parseStorageType(args[1]) : null;
+        StorageType to = args.length == 3 ? parseStorageType(args[2]) : null;
+        if (from == null || to == null || from == to) {
+            MessageUtil.sendMessage(sender, "invalid-usage", MessageUtil.placeholder("usage", "/" + label + " migrate <from> <to>"));
+            return;
+        }
+        if (!migrationRunning.compareAndSet(false, true)) {
+            MessageUtil.sendMessage(sender, "migration-already-running");
+            return;
+        }
+
+        MessageUtil.sendMessage(sender, "migration-started", MessageUtil.placeholder("from", from), MessageUtil.placeholder("to", to));
+        new StorageMigration(plugin, plugin.getStorageManager(), from, to)
+                .start(progress -> MessageUtil.sendMessage(sender, "migration-progress",
+                        MessageUtil.placeholder("copied", progress.copied()),
+                        MessageUtil.placeholder("total", progress.total()),
+                        MessageUtil.placeholder("rate", progress.accountsPerSecond())))
+                .whenComplete((result, error) -> {
+                    migrationRunning.set(false);
+                    if (error != null) {
+                        MessageUtil.sendMessage(sender, "migration-failed");
+                    } else if (!result.verified()) {
+                        MessageUtil.sendMessage(sender, "migration-verify-failed",
+                                MessageUtil.placeholder("from", from), MessageUtil.placeholder("to", to),
+                                MessageUtil.placeholder("source-count", result.sourceCount()),
+                                MessageUtil.placeholder("target-count", result.targetCount()));
+                    } else {
+                        MessageUtil.sendMessage(sender, "migration-success");
+                    }
+                });
+    }
+
+    @Nullable
+    private StorageType parseStorageType(String name) {
+        try {
+            return StorageType.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void sendStat(CommandSender sender, String name, Object value) {
+        MessageUtil.sendMessage(sender, "stats-entry", MessageUtil.placeholder("name", name), MessageUtil.placeholder("value", String.valueOf(value)));
+    }
+
     @Nullable
     @Override
     public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String alias, @NotNull String[] args) {
         if (args.length == 1) {
-            return Arrays.asList("set", "add", "remove", "reload").stream()
+            return Arrays.asList("set", "add", "remove", "reload", "stats", "migrate").stream()
                     .filter(s -> sender.hasPermission("kec.admin." + s))
                     .filter(s -> s.startsWith(args[0].toLowerCase()))
                     .collect(Collectors.toList());
@@ -121,6 +225,12 @@ public class EmeraldAdminCommand implements CommandExecutor, TabCompleter {
                     .filter(name -> name.toLowerCase().startsWith(args[1].toLowerCase()))
                     .collect(Collectors.toList());
         }
+        if ((args.length == 2 || args.length == 3) && args[0].equalsIgnoreCase("migrate") && sender.hasPermission("kec.admin.migrate")) {
+            return Arrays.stream(StorageType.values())
+                    .map(Enum::name)
+                    .filter(name -> name.startsWith(args[args.length - 1].toUpperCase()))
+                    .collect(Collectors.toList());
+        }
         return null;
     }
 }
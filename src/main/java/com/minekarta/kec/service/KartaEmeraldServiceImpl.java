@@ -1,6 +1,7 @@
 package com.minekarta.kec.service;
 
 import com.minekarta.kec.KartaEmeraldCurrencyPlugin;
+import com.minekarta.kec.api.BalanceMutation;
 import com.minekarta.kec.api.CurrencyFormatter;
 import com.minekarta.kec.api.KartaEmeraldService;
 import com.minekarta.kec.api.TransferReason;
@@ -18,8 +19,11 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.text.NumberFormat;
+import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.OptionalLong;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
@@ -58,6 +62,11 @@ public class KartaEmeraldServiceImpl implements KartaEmeraldService {
         return economyDataHandler.getBalance(playerId);
     }
 
+    @Override
+    public CompletableFuture<Map<UUID, Long>> getBankBalances(@NotNull Collection<UUID> playerIds) {
+        return economyDataHandler.getBalances(playerIds);
+    }
+
     @Override
     public long getWalletBalance(@NotNull OfflinePlayer player) {
         if (!player.isOnline() || player.getPlayer() == null) {
@@ -218,6 +227,16 @@ public class KartaEmeraldServiceImpl implements KartaEmeraldService {
         return economyDataHandler.removeBalance(playerId, delta).thenApply(newBalance -> true);
     }
 
+    @Override
+    public CompletableFuture<List<OptionalLong>> applyBatch(@NotNull List<BalanceMutation> mutations) {
+        return economyDataHandler.applyBatch(mutations).thenApply(results -> {
+            if (plugin.getPlaceholderExpansion() != null) {
+                mutations.forEach(mutation -> plugin.getPlaceholderExpansion().invalidateBalanceCache(mutation.getPlayerId()));
+            }
+            return results;
+        });
+    }
+
     @Override
     @NotNull
     public CurrencyFormatter getFormatter() {
@@ -229,6 +248,16 @@ public class KartaEmeraldServiceImpl implements KartaEmeraldService {
         return economyDataHandler.getTopBalances(limit, offset);
     }
 
+    @Override
+    public CompletableFuture<Integer> getRank(@NotNull UUID playerId) {
+        return economyDataHandler.getRank(playerId);
+    }
+
+    @Override
+    public CompletableFuture<Map<UUID, Long>> getNearbyBalances(@NotNull UUID playerId, int radius) {
+        return economyDataHandler.getNearbyBalances(playerId, radius);
+    }
+
     @Override
     public CompletableFuture<Integer> getAccountCount() {
         return economyDataHandler.getAccountCount();
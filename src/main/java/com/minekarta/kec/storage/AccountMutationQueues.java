@@ -0,0 +1,282 @@
+package com.minekarta.kec.storage;
+
+import com.minekarta.kec.api.BalanceMutation;
+import com.minekarta.kec.storage.provider.PlayerData;
+import com.minekarta.kec.storage.provider.StorageProvider;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serializes balance mutations per account without blocking worker threads.
+ * <p>
+ * Accounts are sharded by UUID onto single-writer queues. A shard is drained by at most one
+ * executor task at a time, so mutations of the same account never run concurrently and
+ * a hot account only ever occupies one worker. Consecutive additions to the same account
+ * waiting in a queue are coalesced into a single storage write.
+ */
+public final class AccountMutationQueues {
+
+    private static final int MAX_MUTATIONS_PER_DRAIN = 256;
+
+    private enum Kind {
+        ADD,
+        REMOVE,
+        WITHDRAW,
+        SET
+    }
+
+    private record Mutation(Kind kind, UUID uuid, long amount, CompletableFuture<Long> result) {
+    }
+
+    private static final class Shard {
+        final Queue<Mutation> queue = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+    }
+
+    private final Supplier<StorageProvider> providerSupplier;
+    private final Executor executor;
+    private final Logger logger;
+    private final Shard[] shards;
+    private final int mask;
+    private final AtomicInteger queuedMutations = new AtomicInteger();
+
+    /**
+     * Constructs a new set of mutation queues.
+     * @param providerSupplier Supplies the active storage provider.
+     * @param executor The executor that drains the queues.
+     * @param logger The logger for failures no caller can handle, such as a failed refund.
+     * @param shardCount The desired number of queues, rounded up to the next power of two.
+     */
+    public AccountMutationQueues(@NotNull Supplier<StorageProvider> providerSupplier, @NotNull Executor executor, @NotNull Logger logger, int shardCount) {
+        this.providerSupplier = providerSupplier;
+        this.executor = executor;
+        this.logger = logger;
+        int size = shardCount <= 1 ? 1 : Integer.highestOneBit(shardCount - 1) << 1;
+        this.shards = new Shard[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new Shard();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Queues an addition to an account's balance.
+     * @param uuid The UUID of the account.
+     * @param amount The amount to add.
+     * @return A CompletableFuture that resolves to the new balance.
+     */
+    public CompletableFuture<Long> add(@NotNull UUID uuid, long amount) {
+        return submit(Kind.ADD, uuid, amount);
+    }
+
+    /**
+     * Queues a removal from an account's balance, clamped at zero.
+     * @param uuid The UUID of the account.
+     * @param amount The amount to remove.
+     * @return A CompletableFuture that resolves to the new balance.
+     */
+    public CompletableFuture<Long> remove(@NotNull UUID uuid, long amount) {
+        return submit(Kind.REMOVE, uuid, amount);
+    }
+
+    /**
+     * Queues a withdrawal that only succeeds if the balance covers it.
+     * @param uuid The UUID of the account.
+     * @param amount The amount to withdraw.
+     * @return A CompletableFuture that resolves to the new balance, or empty if the funds were insufficient.
+     */
+    public CompletableFuture<OptionalLong> withdraw(@NotNull UUID uuid, long amount) {
+        return submit(Kind.WITHDRAW, uuid, amount)
+                .thenApply(balance -> balance == null ? OptionalLong.empty() : OptionalLong.of(balance));
+    }
+
+    /**
+     * Queues setting an account's balance.
+     * @param uuid The UUID of the account.
+     * @param balance The new balance.
+     * @return A CompletableFuture that completes once the balance is stored.
+     */
+    public CompletableFuture<Void> set(@NotNull UUID uuid, long balance) {
+        return submit(Kind.SET, uuid, balance).thenApply(b -> null);
+    }
+
+    /**
+     * Transfers an amount between two accounts. The sender is debited on its own queue first;
+     * only then is the receiver credited on its queue, so neither account waits for the other.
+     * If the credit fails, the sender is refunded, and the returned future only completes once the
+     * refund has settled.
+     *
+     * @param from The UUID of the sender.
+     * @param to The UUID of the receiver.
+     * @param amount The amount the receiver gets.
+     * @param fee The fee charged to the sender on top of the amount.
+     * @return A CompletableFuture that resolves to true if the transfer was made, false if funds were insufficient.
+     */
+    public CompletableFuture<Boolean> transfer(@NotNull UUID from, @NotNull UUID to, long amount, long fee) {
+        long debit = amount + fee;
+        return submit(Kind.WITHDRAW, from, debit).thenCompose(debited -> {
+            if (debited == null) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return submit(Kind.ADD, to, amount)
+                    .thenApply(credited -> true)
+                    .exceptionallyCompose(creditError -> refund(from, debit, creditError));
+        });
+    }
+
+    /**
+     * Gives a debited amount back to the sender of a failed transfer, then fails with the original error.
+     * If the refund fails as well, the lost amount is logged and the transfer fails with the refund's error.
+     */
+    private CompletableFuture<Boolean> refund(UUID from, long debit, Throwable creditError) {
+        return submit(Kind.ADD, from, debit).handle((refunded, refundError) -> {
+            if (refundError == null) {
+                throw creditError instanceof CompletionException ce ? ce : new CompletionException(creditError);
+            }
+            logger.log(Level.SEVERE, "Failed to refund " + debit + " to " + from + " after a failed transfer; the amount is lost", refundError);
+            refundError.addSuppressed(creditError);
+            throw refundError instanceof CompletionException ce ? ce : new CompletionException(refundError);
+        });
+    }
+
+    /**
+     * Queues a list of mutations, each on its account's queue. Mutations of the same account
+     * keep their order, and consecutive deposits are coalesced like any other.
+     *
+     * @param mutations The mutations to apply.
+     * @return A CompletableFuture that resolves to the balance after each mutation, in list order,
+     *         or empty where a withdrawal was refused.
+     */
+    public CompletableFuture<List<OptionalLong>> applyBatch(@NotNull List<BalanceMutation> mutations) {
+        List<CompletableFuture<OptionalLong>> futures = new ArrayList<>(mutations.size());
+        for (BalanceMutation mutation : mutations) {
+            futures.add(switch (mutation.getType()) {
+                case DEPOSIT -> add(mutation.getPlayerId(), mutation.getAmount()).thenApply(OptionalLong::of);
+                case REMOVE -> remove(mutation.getPlayerId(), mutation.getAmount()).thenApply(OptionalLong::of);
+                case WITHDRAW -> withdraw(mutation.getPlayerId(), mutation.getAmount());
+            });
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> futures.stream().map(CompletableFuture::join).toList());
+    }
+
+    /**
+     * Gets the number of mutations waiting in all queues.
+     * @return The number of queued mutations.
+     */
+    public int getQueuedCount() {
+        return queuedMutations.get();
+    }
+
+    private CompletableFuture<Long> submit(Kind kind, UUID uuid, long amount) {
+        Mutation mutation = new Mutation(kind, uuid, amount, new CompletableFuture<>());
+        Shard shard = shards[shardOf(uuid)];
+        queuedMutations.incrementAndGet();
+        shard.queue.add(mutation);
+        schedule(shard);
+        return mutation.result();
+    }
+
+    private void schedule(Shard shard) {
+        if (!shard.scheduled.compareAndSet(false, true)) {
+            return; // Already being drained; the running drain will pick the mutation up
+        }
+        try {
+            executor.execute(() -> drain(shard));
+        } catch (RejectedExecutionException e) {
+            Mutation mutation;
+            while ((mutation = shard.queue.poll()) != null) {
+                queuedMutations.decrementAndGet();
+                mutation.result().completeExceptionally(e);
+            }
+            shard.scheduled.set(false);
+        }
+    }
+
+    private void drain(Shard shard) {
+        StorageProvider provider = providerSupplier.get();
+        int processed = 0;
+        Mutation mutation;
+        while (processed < MAX_MUTATIONS_PER_DRAIN && (mutation = shard.queue.poll()) != null) {
+            queuedMutations.decrementAndGet();
+            processed++;
+            if (mutation.kind() == Kind.ADD) {
+                applyCoalescedAdd(shard, provider, mutation);
+                continue;
+            }
+            try {
+                mutation.result().complete(switch (mutation.kind()) {
+                    case REMOVE -> provider.removeBalance(mutation.uuid(), mutation.amount());
+                    case WITHDRAW -> {
+                        OptionalLong balance = provider.withdrawBalance(mutation.uuid(), mutation.amount());
+                        yield balance.isPresent() ? balance.getAsLong() : null;
+                    }
+                    case SET -> {
+                        provider.savePlayerData(mutation.uuid(), new PlayerData(mutation.amount()));
+                        yield mutation.amount();
+                    }
+                    default -> throw new IllegalStateException("Unexpected mutation: " + mutation.kind());
+                });
+            } catch (RuntimeException e) {
+                mutation.result().completeExceptionally(e);
+            }
+        }
+
+        shard.scheduled.set(false);
+        // A mutation may have been queued after the last poll but before the flag was cleared
+        if (!shard.queue.isEmpty()) {
+            schedule(shard);
+        }
+    }
+
+    /**
+     * Applies an addition together with any additions to the same account queued directly behind it.
+     * Each caller still receives the balance as it was right after its own addition.
+     */
+    private void applyCoalescedAdd(Shard shard, StorageProvider provider, Mutation first) {
+        List<Mutation> run = new ArrayList<>();
+        run.add(first);
+        long total = first.amount();
+        Mutation next;
+        // This drain is the only consumer, so a peeked mutation is still there to poll
+        while ((next = shard.queue.peek()) != null && next.kind() == Kind.ADD && next.uuid().equals(first.uuid())) {
+            shard.queue.poll();
+            queuedMutations.decrementAndGet();
+            run.add(next);
+            total += next.amount();
+        }
+
+        try {
+            long newBalance = provider.addBalance(first.uuid(), total);
+            long remaining = total;
+            for (Mutation mutation : run) {
+                remaining -= mutation.amount();
+                mutation.result().complete(newBalance - remaining);
+            }
+        } catch (RuntimeException e) {
+            for (Mutation mutation : run) {
+                mutation.result().completeExceptionally(e);
+            }
+        }
+    }
+
+    private int shardOf(UUID uuid) {
+        int hash = uuid.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -1,30 +1,58 @@
 package com.minekarta.kec.storage;
 
+import com.minekarta.kec.api.BalanceMutation;
 import com.minekarta.kec.storage.provider.PlayerData;
 import com.minekarta.kec.storage.provider.StorageProvider;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Comparator;
-import java.util.LinkedHashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 public class DefaultEconomyDataHandler implements EconomyDataHandler {
 
+    public static final int DEFAULT_LOCK_STRIPES = 256;
+
+    /**
+     * How concurrent mutations of the same account are serialized.
+     */
+    public enum ConcurrencyMode {
+        /** Worker threads lock the account's stripe and wait for each other. */
+        LOCKING,
+        /** Mutations are queued per account and applied one after another without blocking workers. */
+        ACTOR
+    }
+
     private final StorageManager storageManager;
     private final Executor asyncExecutor;
-    private final Map<UUID, Lock> userLocks = new ConcurrentHashMap<>();
+    private final StripedLocks accountLocks;
+    private final AccountMutationQueues mutationQueues;
 
     public DefaultEconomyDataHandler(StorageManager storageManager, Executor asyncExecutor) {
+        this(storageManager, asyncExecutor, DEFAULT_LOCK_STRIPES);
+    }
+
+    public DefaultEconomyDataHandler(StorageManager storageManager, Executor asyncExecutor, int lockStripes) {
+        this(storageManager, asyncExecutor, lockStripes, ConcurrencyMode.LOCKING);
+    }
+
+    public DefaultEconomyDataHandler(StorageManager storageManager, Executor asyncExecutor, int lockStripes, ConcurrencyMode concurrencyMode) {
         this.storageManager = storageManager;
         this.asyncExecutor = asyncExecutor;
+        this.accountLocks = new StripedLocks(lockStripes);
+        this.mutationQueues = concurrencyMode == ConcurrencyMode.ACTOR
+                ? new AccountMutationQueues(storageManager::getProvider, asyncExecutor, storageManager.getLogger(), lockStripes)
+                : null;
     }
 
     private StorageProvider provider() {
@@ -32,11 +60,27 @@ public class DefaultEconomyDataHandler implements EconomyDataHandler {
     }
 
     private <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
-        return CompletableFuture.supplyAsync(supplier, asyncExecutor);
+        try {
+            return CompletableFuture.supplyAsync(supplier, asyncExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Like {@link #supplyAsync}, but for operations over the full dataset: they wait for the provider
+     * to finish loading without tying up an executor thread meanwhile.
+     */
+    private <T> CompletableFuture<T> supplyWhenReady(Supplier<T> supplier) {
+        return provider().readiness().thenCompose(ignored -> supplyAsync(supplier));
     }
 
     private CompletableFuture<Void> runAsync(Runnable runnable) {
-        return CompletableFuture.runAsync(runnable, asyncExecutor);
+        try {
+            return CompletableFuture.runAsync(runnable, asyncExecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
     }
 
     @Override
@@ -57,18 +101,32 @@ public class DefaultEconomyDataHandler implements EconomyDataHandler {
     }
 
     @Override
-    public CompletableFuture<Void> setBalance(@NotNull UUID uuid, long balance) {
-        return runAsync(() -> {
-            Lock lock = userLocks.computeIfAbsent(uuid, k -> new ReentrantLock());
-            lock.lock();
-            try {
-                provider().savePlayerData(uuid, new PlayerData(balance));
-            } finally {
-                lock.unlock();
+    public CompletableFuture<Map<UUID, Long>> getBalances(@NotNull Collection<UUID> uuids) {
+        if (uuids.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyMap());
+        }
+        List<UUID> requested = List.copyOf(uuids);
+        return supplyAsync(() -> {
+            Map<UUID, Long> found = provider().getBalances(requested);
+            Map<UUID, Long> balances = new HashMap<>();
+            for (UUID uuid : requested) {
+                balances.put(uuid, found.getOrDefault(uuid, 0L));
             }
+            return balances;
         });
     }
 
+    @Override
+    public CompletableFuture<Void> setBalance(@NotNull UUID uuid, long balance) {
+        if (mutationQueues != null) {
+            return mutationQueues.set(uuid, balance);
+        }
+        return runAsync(() -> accountLocks.withLock(uuid, () -> {
+            provider().savePlayerData(uuid, new PlayerData(balance));
+            return null;
+        }));
+    }
+
     @Override
     public CompletableFuture<Boolean> hasAccount(@NotNull UUID uuid) {
         return supplyAsync(() -> provider().getPlayerData(uuid).isPresent());
@@ -81,92 +139,106 @@ public class DefaultEconomyDataHandler implements EconomyDataHandler {
 
     @Override
     public CompletableFuture<Long> addBalance(@NotNull UUID uuid, long amount) {
-        return supplyAsync(() -> {
-            Lock lock = userLocks.computeIfAbsent(uuid, k -> new ReentrantLock());
-            lock.lock();
-            try {
-                long currentBalance = provider().getPlayerData(uuid).map(PlayerData::getBalance).orElse(0L);
-                long newBalance = currentBalance + amount;
-                provider().savePlayerData(uuid, new PlayerData(newBalance));
-                return newBalance;
-            } finally {
-                lock.unlock();
-            }
-        });
+        if (mutationQueues != null) {
+            return mutationQueues.add(uuid, amount);
+        }
+        return supplyAsync(() -> withAccountLock(uuid, () -> provider().addBalance(uuid, amount)));
     }
 
-
-
     @Override
     public CompletableFuture<Long> removeBalance(@NotNull UUID uuid, long amount) {
+        if (mutationQueues != null) {
+            return mutationQueues.remove(uuid, amount);
+        }
+        return supplyAsync(() -> withAccountLock(uuid, () -> provider().removeBalance(uuid, amount)));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> performTransfer(@NotNull UUID from, @NotNull UUID to, long amount, long fee) {
+        // Providers that transfer atomically leave no window between debit and credit to refund
+        if (mutationQueues != null && !provider().supportsAtomicDeltas()) {
+            return mutationQueues.transfer(from, to, amount, fee);
+        }
         return supplyAsync(() -> {
-            Lock lock = userLocks.computeIfAbsent(uuid, k -> new ReentrantLock());
-            lock.lock();
-            try {
-                long currentBalance = provider().getPlayerData(uuid).map(PlayerData::getBalance).orElse(0L);
-                long newBalance = Math.max(0, currentBalance - amount);
-                provider().savePlayerData(uuid, new PlayerData(newBalance));
-                return newBalance;
-            } finally {
-                lock.unlock();
+            StorageProvider provider = provider();
+            if (provider.supportsAtomicDeltas()) {
+                return provider.transfer(from, to, amount, fee);
             }
+            return accountLocks.withLocks(from, to, () -> provider.transfer(from, to, amount, fee));
         });
     }
 
     @Override
-    public CompletableFuture<Boolean> performTransfer(@NotNull UUID from, @NotNull UUID to, long amount, long fee) {
+    public CompletableFuture<List<OptionalLong>> applyBatch(@NotNull List<BalanceMutation> mutations) {
+        if (mutations.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        List<BalanceMutation> batch = List.copyOf(mutations);
+        if (mutationQueues != null && !provider().supportsAtomicDeltas()) {
+            return mutationQueues.applyBatch(batch);
+        }
         return supplyAsync(() -> {
-            long totalDeduction = amount + fee;
-            UUID first = from.compareTo(to) < 0 ? from : to;
-            UUID second = from.compareTo(to) < 0 ? to : from;
-
-            Lock lock1 = userLocks.computeIfAbsent(first, k -> new ReentrantLock());
-            Lock lock2 = userLocks.computeIfAbsent(second, k -> new ReentrantLock());
-
-            lock1.lock();
-            lock2.lock();
-            try {
-                PlayerData fromData = provider().getPlayerData(from).orElse(new PlayerData(0));
+            StorageProvider provider = provider();
+            if (provider.supportsAtomicDeltas()) {
+                return provider.applyMutations(batch);
+            }
+            Set<UUID> accounts = new HashSet<>();
+            batch.forEach(mutation -> accounts.add(mutation.getPlayerId()));
+            return accountLocks.withLocks(accounts, () -> provider.applyMutations(batch));
+        });
+    }
 
-                if (fromData.getBalance() < totalDeduction) {
-                    return false; // Insufficient funds
-                }
+    /**
+     * Runs a balance operation for a single account. Providers that apply deltas atomically
+     * are called directly; for all others the account is locked for the duration of the call.
+     */
+    private <T> T withAccountLock(UUID uuid, Supplier<T> operation) {
+        if (provider().supportsAtomicDeltas()) {
+            return operation.get();
+        }
+        return accountLocks.withLock(uuid, operation);
+    }
 
-                PlayerData toData = provider().getPlayerData(to).orElse(new PlayerData(0));
+    /**
+     * Gets the lock table guarding account mutations, e.g. to inspect its contention counters.
+     * @return The account lock table.
+     */
+    public StripedLocks getAccountLocks() {
+        return accountLocks;
+    }
 
-                fromData.setBalance(fromData.getBalance() - totalDeduction);
-                toData.setBalance(toData.getBalance() + amount);
+    /**
+     * Gets the per-account mutation queues used in {@link ConcurrencyMode#ACTOR} mode.
+     * @return The mutation queues, or null if the handler uses locking.
+     */
+    public AccountMutationQueues getMutationQueues() {
+        return mutationQueues;
+    }
 
-                provider().savePlayerData(from, fromData);
-                provider().savePlayerData(to, toData);
+    @Override
+    public CompletableFuture<Map<UUID, Long>> getTopBalances(int limit, int offset) {
+        return supplyWhenReady(() -> provider().getTopBalances(limit, offset));
+    }
 
-                return true;
-            } finally {
-                lock2.unlock();
-                lock1.unlock();
-            }
-        });
+    @Override
+    public CompletableFuture<Integer> getRank(@NotNull UUID uuid) {
+        return supplyWhenReady(() -> provider().getRank(uuid));
     }
 
     @Override
-    public CompletableFuture<Map<UUID, Long>> getTopBalances(int limit, int offset) {
-        return supplyAsync(() -> {
-            Map<UUID, PlayerData> allData = provider().getAllPlayerData();
-            return allData.entrySet().stream()
-                    .sorted(Map.Entry.comparingByValue(Comparator.comparingLong(PlayerData::getBalance).reversed()))
-                    .skip(offset)
-                    .limit(limit)
-                    .collect(Collectors.toMap(
-                            Map.Entry::getKey,
-                            entry -> entry.getValue().getBalance(),
-                            (e1, e2) -> e1,
-                            LinkedHashMap::new
-                    ));
+    public CompletableFuture<Map<UUID, Long>> getNearbyBalances(@NotNull UUID uuid, int radius) {
+        return supplyWhenReady(() -> {
+            int rank = provider().getRank(uuid);
+            if (rank == 0) {
+                return Collections.emptyMap();
+            }
+            int offset = Math.max(0, rank - 1 - radius);
+            return provider().getTopBalances(rank - offset + radius, offset);
         });
     }
 
     @Override
     public CompletableFuture<Integer> getAccountCount() {
-        return supplyAsync(() -> provider().getAllPlayerData().size());
+        return supplyWhenReady(() -> provider().getAccountCount());
     }
 }
@@ -1,8 +1,12 @@
 package com.minekarta.kec.storage;
 
+import com.minekarta.kec.api.BalanceMutation;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.OptionalLong;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
@@ -21,6 +25,24 @@ public interface EconomyDataHandler {
      */
     CompletableFuture<Map<UUID, Long>> getTopBalances(int limit, int offset);
 
+    /**
+     * Gets the leaderboard position of a player, using the same order as {@link #getTopBalances(int, int)}.
+     *
+     * @param uuid The UUID of the player.
+     * @return A CompletableFuture that resolves to the player's 1-based rank, or 0 if the player has no account.
+     */
+    CompletableFuture<Integer> getRank(@NotNull UUID uuid);
+
+    /**
+     * Retrieves the leaderboard entries surrounding a player.
+     *
+     * @param uuid The UUID of the player.
+     * @param radius How many entries to include above and below the player.
+     * @return A CompletableFuture that resolves to a map of Player UUIDs to their balances, sorted descending.
+     *         The map is empty if the player has no account.
+     */
+    CompletableFuture<Map<UUID, Long>> getNearbyBalances(@NotNull UUID uuid, int radius);
+
     /**
      * Gets the total number of player accounts in the database.
      *
@@ -48,6 +70,14 @@ public interface EconomyDataHandler {
      */
     CompletableFuture<Long> getBalance(@NotNull UUID uuid);
 
+    /**
+     * Retrieves the bank balances of several players at once.
+     *
+     * @param uuids The UUIDs of the players.
+     * @return A CompletableFuture that resolves to a map of every requested UUID to its balance, or 0 if not found.
+     */
+    CompletableFuture<Map<UUID, Long>> getBalances(@NotNull Collection<UUID> uuids);
+
     /**
      * Sets the bank balance for a given player. If the player does not exist,
      * an account may be created.
@@ -101,4 +131,13 @@ public interface EconomyDataHandler {
      * @return A CompletableFuture that resolves to the new balance.
      */
     CompletableFuture<Long> removeBalance(@NotNull UUID uuid, long amount);
+
+    /**
+     * Applies many balance mutations at once. Mutations are grouped by account and written
+     * together, and mutations of the same account are applied in list order.
+     * @param mutations The mutations to apply.
+     * @return A CompletableFuture that resolves to the balance after each mutation, in list order,
+     *         or empty where a withdrawal was refused for insufficient funds.
+     */
+    CompletableFuture<List<OptionalLong>> applyBatch(@NotNull List<BalanceMutation> mutations);
 }
@@ -0,0 +1,141 @@
+package com.minekarta.kec.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The executor that runs all storage I/O, owned by the plugin rather than shared with
+ * other plugins through the Bukkit scheduler. Tracks queue depth, active tasks and rejections.
+ */
+public final class StorageExecutor implements Executor {
+
+    /**
+     * The kind of threads storage tasks run on.
+     */
+    public enum Type {
+        /** A new virtual thread per task. Blocking JDBC calls don't tie up platform threads. */
+        VIRTUAL,
+        /** A fixed pool of platform threads with a bounded queue. */
+        PLATFORM
+    }
+
+    private final Type type;
+    private final ExecutorService delegate;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructs a new StorageExecutor.
+     * @param type The kind of threads to use.
+     * @param threads The number of threads for {@link Type#PLATFORM}.
+     * @param queueCapacity The maximum number of waiting tasks for {@link Type#PLATFORM}.
+     */
+    public StorageExecutor(@NotNull Type type, int threads, int queueCapacity) {
+        this.type = type;
+        if (type == Type.VIRTUAL) {
+            this.delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("KartaEmerald-Storage-", 0).factory());
+        } else {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "KartaEmerald-Storage-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+            this.delegate = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        }
+    }
+
+    @Override
+    public void execute(@NotNull Runnable task) {
+        queued.incrementAndGet();
+        try {
+            delegate.execute(() -> {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    active.decrementAndGet();
+                    completed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops accepting new tasks and waits for the queued ones to finish.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return true if all tasks finished, false if some were still running when the timeout elapsed.
+     */
+    public boolean shutdown(long timeout, @NotNull TimeUnit unit) {
+        delegate.shutdown();
+        try {
+            if (delegate.awaitTermination(timeout, unit)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.shutdownNow();
+        return false;
+    }
+
+    /**
+     * Gets the kind of threads this executor uses.
+     * @return The executor type.
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the number of tasks waiting to start.
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Gets the number of tasks currently running.
+     * @return The active task count.
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Gets the number of tasks that have finished.
+     * @return The completed task count.
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * Gets the number of tasks that were refused because the queue was full or the executor was shut down.
+     * @return The rejected task count.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+}
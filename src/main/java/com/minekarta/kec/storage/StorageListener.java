@@ -0,0 +1,46 @@
+package com.minekarta.kec.storage;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Forwards player join and quit events to the active storage provider,
+ * allowing it to cache or flush the data of online players.
+ */
+public class StorageListener implements Listener {
+
+    private final StorageManager storageManager;
+
+    /**
+     * Constructs a new StorageListener.
+     * @param storageManager The storage manager.
+     */
+    public StorageListener(StorageManager storageManager) {
+        this.storageManager = storageManager;
+    }
+
+    /**
+     * Handles players joining the server.
+     * @param event The join event.
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        if (storageManager.getProvider() != null) {
+            storageManager.getProvider().handlePlayerJoin(event.getPlayer().getUniqueId());
+        }
+    }
+
+    /**
+     * Handles players leaving the server.
+     * @param event The quit event.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        if (storageManager.getProvider() != null) {
+            storageManager.getProvider().handlePlayerQuit(event.getPlayer().getUniqueId());
+        }
+    }
+}
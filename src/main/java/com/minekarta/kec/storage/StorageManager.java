@@ -1,25 +1,37 @@
 package com.minekarta.kec.storage;
 
 import com.minekarta.kec.KartaEmeraldCurrencyPlugin;
+import com.minekarta.kec.storage.provider.BinaryStorageProvider;
 import com.minekarta.kec.storage.provider.FileStorageProvider;
+import com.minekarta.kec.storage.provider.MvStoreStorageProvider;
 import com.minekarta.kec.storage.provider.MySqlStorageProvider;
+import com.minekarta.kec.storage.provider.SqliteStorageProvider;
 import com.minekarta.kec.storage.provider.StorageProvider;
+import com.minekarta.kec.storage.provider.WriteBehindStorageProvider;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import org.bukkit.Bukkit;
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
 
 import java.io.File;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 public class StorageManager {
 
     private final KartaEmeraldCurrencyPlugin plugin;
     private StorageProvider activeProvider;
     private HikariDataSource dataSource;
+    private StorageExecutor executor;
+    private StorageType storageType;
 
     public enum StorageType {
         MYSQL,
-        YAML // Changed from FILE to be more specific, as per implementation
+        YAML, // Changed from FILE to be more specific, as per implementation
+        BINARY,
+        SQLITE,
+        H2
     }
 
     public StorageManager(KartaEmeraldCurrencyPlugin plugin) {
@@ -27,9 +39,6 @@ public class StorageManager {
     }
 
     public void initialize() {
-        // Before initializing, check for deprecated H2 files
-        checkForH2Files();
-
         String storageTypeStr = plugin.getConfig().getString("storage.type", "YAML").toUpperCase();
         StorageType storageType;
         try {
@@ -39,31 +48,65 @@ public class StorageManager {
             storageType = StorageType.YAML;
         }
 
+        // Before initializing, check for the database of the old H2 storage
+        checkForH2Files(storageType);
+
         plugin.getLogger().info("Initializing storage provider: " + storageType);
+        this.storageType = storageType;
 
         if (this.activeProvider != null) {
-            shutdown(); // Shutdown existing provider before creating a new one
+            closeProvider(); // Shutdown existing provider before creating a new one
+        }
+        if (this.executor == null) {
+            this.executor = createExecutor(storageType);
         }
 
         switch (storageType) {
             case MYSQL:
                 this.dataSource = createHikariDataSource();
-                this.activeProvider = new MySqlStorageProvider(dataSource, plugin.getLogger());
+                this.activeProvider = createMySqlProvider();
                 break;
             case YAML:
                 this.activeProvider = new FileStorageProvider(plugin);
                 break;
+            case BINARY:
+                this.activeProvider = new BinaryStorageProvider(plugin);
+                break;
+            case SQLITE:
+                this.activeProvider = new SqliteStorageProvider(plugin);
+                break;
+            case H2:
+                this.activeProvider = new MvStoreStorageProvider(plugin);
+                break;
             default:
                 throw new IllegalStateException("Unsupported storage type: " + storageType);
         }
 
         this.activeProvider.initialize();
+        // Players who are already online (e.g. after a reload) never fire a join event
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            activeProvider.handlePlayerJoin(player.getUniqueId());
+        }
         plugin.getLogger().info("Storage provider initialized successfully.");
     }
 
     public void shutdown() {
+        if (executor != null) {
+            // Let queued storage operations finish before the provider flushes and closes
+            long timeoutSeconds = plugin.getConfig().getLong("storage.executor.shutdown-timeout-seconds", 10);
+            if (!executor.shutdown(timeoutSeconds, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Storage tasks were still running after " + timeoutSeconds + " seconds and have been interrupted.");
+            }
+            executor = null;
+        }
+        closeProvider();
+    }
+
+    private void closeProvider() {
         if (activeProvider != null) {
             activeProvider.shutdown();
+            // Shutting a provider down twice would close its files twice
+            activeProvider = null;
             plugin.getLogger().info("Storage provider shut down.");
         }
         if (dataSource != null && !dataSource.isClosed()) {
@@ -74,15 +117,63 @@ public class StorageManager {
 
     public void reload() {
         plugin.getLogger().info("Reloading storage provider...");
-        shutdown();
-        initialize();
+        initialize(); // Closes the current provider first
     }
 
     public StorageProvider getProvider() {
         return activeProvider;
     }
 
-    private HikariDataSource createHikariDataSource() {
+    public Logger getLogger() {
+        return plugin.getLogger();
+    }
+
+    public StorageType getStorageType() {
+        return storageType;
+    }
+
+    public StorageExecutor getExecutor() {
+        return executor;
+    }
+
+    private StorageExecutor createExecutor(StorageType storageType) {
+        String typeStr = plugin.getConfig().getString("storage.executor.type", "VIRTUAL").toUpperCase();
+        StorageExecutor.Type type;
+        try {
+            type = StorageExecutor.Type.valueOf(typeStr);
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("Invalid storage executor type '" + typeStr + "' in config.yml. Defaulting to VIRTUAL.");
+            type = StorageExecutor.Type.VIRTUAL;
+        }
+
+        int threads = plugin.getConfig().getInt("storage.executor.threads", 0);
+        if (threads <= 0) {
+            // Threads beyond the connection pool size would only wait for a connection
+            threads = storageType == StorageType.MYSQL
+                    ? plugin.getConfig().getInt("storage.mysql.pool.maximum-pool-size", 10)
+                    : Runtime.getRuntime().availableProcessors();
+        }
+        int queueCapacity = Math.max(1, plugin.getConfig().getInt("storage.executor.queue-capacity", 10000));
+        return new StorageExecutor(type, threads, queueCapacity);
+    }
+
+    private StorageProvider createMySqlProvider() {
+        StorageProvider mySqlProvider = new MySqlStorageProvider(dataSource, plugin.getLogger());
+        ConfigurationSection writeBehindConfig = plugin.getConfig().getConfigurationSection("storage.mysql.write-behind");
+        if (writeBehindConfig == null || !writeBehindConfig.getBoolean("enabled", false)) {
+            return mySqlProvider;
+        }
+
+        long flushIntervalTicks = Math.max(1L, writeBehindConfig.getLong("flush-interval-seconds", 5)) * 20L;
+        int maxDirtyEntries = Math.max(1, writeBehindConfig.getInt("max-dirty-entries", 500));
+        long rankIndexRefreshTicks = writeBehindConfig.getBoolean("rank-index", false)
+                ? Math.max(1L, plugin.getConfig().getLong("leaderboard.refresh-seconds", 60)) * 20L
+                : 0L;
+        plugin.getLogger().info("Write-behind cache enabled for MySQL storage.");
+        return new WriteBehindStorageProvider(plugin, mySqlProvider, executor, flushIntervalTicks, maxDirtyEntries, rankIndexRefreshTicks);
+    }
+
+    HikariDataSource createHikariDataSource() {
         ConfigurationSection mysqlConfig = plugin.getConfig().getConfigurationSection("storage.mysql");
         if (mysqlConfig == null) {
             throw new IllegalStateException("MySQL storage is selected, but 'storage.mysql' configuration is missing in config.yml.");
@@ -120,12 +211,12 @@ public class StorageManager {
         return new HikariDataSource(config);
     }
 
-    private void checkForH2Files() {
-        // Look for kec-data.db.mv.db or other h2 files in the plugin's data folder
+    private void checkForH2Files(StorageType storageType) {
+        // Look for kec-data.db.mv.db in the plugin's data folder; the H2 storage imports it on first use
         File dataFolder = plugin.getDataFolder();
         File h2File = new File(dataFolder, "kec-data.db.mv.db");
-        if (h2File.exists()) {
-            plugin.getLogger().warning("[KartaEmeraldCurrency] H2 storage is no longer supported. Please migrate to MySQL or YAML storage.");
+        if (h2File.exists() && storageType != StorageType.H2) {
+            plugin.getLogger().warning("[KartaEmeraldCurrency] Found an old H2 database (kec-data.db.mv.db). Set storage.type to H2 to import it.");
         }
     }
 }
@@ -0,0 +1,279 @@
+package com.minekarta.kec.storage;
+
+import com.minekarta.kec.KartaEmeraldCurrencyPlugin;
+import com.minekarta.kec.storage.StorageManager.StorageType;
+import com.minekarta.kec.storage.provider.BinaryStorageProvider;
+import com.minekarta.kec.storage.provider.FileStorageProvider;
+import com.minekarta.kec.storage.provider.MvStoreStorageProvider;
+import com.minekarta.kec.storage.provider.MySqlStorageProvider;
+import com.minekarta.kec.storage.provider.PlayerData;
+import com.minekarta.kec.storage.provider.SqliteStorageProvider;
+import com.minekarta.kec.storage.provider.StorageProvider;
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * Copies every account from one storage type to another.
+ * <p>
+ * The source is streamed in batches, which a pool of writer threads compares against the target
+ * and writes in one batch each; only a bounded number of batches is held in memory. Accounts the
+ * target already holds with the same balance are skipped, so running an interrupted migration
+ * again picks up where it stopped. A target opened just for the migration skips the import of
+ * legacy data it would do on a normal start, so it only ever holds what was copied. Afterwards, both storages are read again and their account
+ * counts and checksums compared.
+ */
+public class StorageMigration {
+
+    /**
+     * A snapshot of a running migration.
+     *
+     * @param copied The number of accounts read from the source so far.
+     * @param total The number of accounts the source held when the migration started.
+     * @param accountsPerSecond The average copy rate so far.
+     */
+    public record Progress(long copied, long total, long accountsPerSecond) {
+    }
+
+    /**
+     * The outcome of a migration.
+     *
+     * @param copied The number of accounts read from the source.
+     * @param written The number of accounts that were missing or different in the target.
+     * @param sourceCount The number of accounts in the source during verification.
+     * @param targetCount The number of accounts in the target during verification.
+     * @param verified Whether the target holds exactly the accounts of the source.
+     */
+    public record Result(long copied, long written, long sourceCount, long targetCount, boolean verified) {
+    }
+
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final KartaEmeraldCurrencyPlugin plugin;
+    private final StorageManager storageManager;
+    private final StorageType from;
+    private final StorageType to;
+    private final int batchSize;
+    private final int writerThreads;
+    private final int maxAccountsPerSecond;
+
+    public StorageMigration(KartaEmeraldCurrencyPlugin plugin, StorageManager storageManager, StorageType from, StorageType to) {
+        this.plugin = plugin;
+        this.storageManager = storageManager;
+        this.from = from;
+        this.to = to;
+        this.batchSize = Math.max(1, plugin.getConfig().getInt("storage.migration.batch-size", 1000));
+        this.writerThreads = Math.max(1, plugin.getConfig().getInt("storage.migration.writer-threads", 4));
+        this.maxAccountsPerSecond = Math.max(0, plugin.getConfig().getInt("storage.migration.max-accounts-per-second", 0));
+    }
+
+    /**
+     * Runs the migration on a background thread.
+     *
+     * @param progressListener Called from the migration thread every few seconds while accounts are copied.
+     * @return A future that completes with the result once the target is verified.
+     */
+    public CompletableFuture<Result> start(Consumer<Progress> progressListener) {
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        Thread.ofPlatform().daemon().name("KartaEmerald-Migration").start(() -> {
+            try {
+                result.complete(run(progressListener));
+            } catch (Throwable t) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to migrate accounts from " + from + " to " + to, t);
+                result.completeExceptionally(t);
+            }
+        });
+        return result;
+    }
+
+    private Result run(Consumer<Progress> progressListener) throws InterruptedException {
+        // Opened providers and connection pools, closed in reverse order
+        Deque<Runnable> closers = new ArrayDeque<>();
+        try {
+            StorageProvider source = open(from, closers);
+            StorageProvider target = open(to, closers);
+            source.readiness().join();
+            target.readiness().join();
+
+            long total = source.getAccountCount();
+            plugin.getLogger().info("Migrating " + total + " accounts from " + from + " to " + to + "...");
+            long startTime = System.nanoTime();
+            long[] counts = copy(source, target, total, startTime, progressListener);
+            long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            plugin.getLogger().info("Copied " + counts[0] + " accounts (" + counts[1] + " written) in " + elapsedMillis + " ms. Verifying...");
+
+            long[] sourceSummary = summarize(source);
+            long[] targetSummary = summarize(target);
+            boolean verified = sourceSummary[0] == targetSummary[0] && sourceSummary[1] == targetSummary[1];
+            if (verified) {
+                plugin.getLogger().info("Verified " + targetSummary[0] + " accounts in " + to + ".");
+            } else {
+                plugin.getLogger().warning("Verification failed: " + from + " has " + sourceSummary[0] + " accounts (checksum "
+                        + Long.toHexString(sourceSummary[1]) + "), " + to + " has " + targetSummary[0] + " (checksum "
+                        + Long.toHexString(targetSummary[1]) + ").");
+            }
+            return new Result(counts[0], counts[1], sourceSummary[0], targetSummary[0], verified);
+        } finally {
+            while (!closers.isEmpty()) {
+                try {
+                    closers.pop().run();
+                } catch (RuntimeException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to close a storage opened for the migration", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the active provider if it has the given type, or opens a separate one that is closed after the migration.
+     * Separate providers don't import legacy data, which would add accounts the source doesn't have.
+     */
+    private StorageProvider open(StorageType type, Deque<Runnable> closers) {
+        if (type == storageManager.getStorageType()) {
+            return storageManager.getProvider();
+        }
+        StorageProvider provider = switch (type) {
+            case MYSQL -> {
+                HikariDataSource dataSource = storageManager.createHikariDataSource();
+                closers.push(dataSource::close);
+                yield new MySqlStorageProvider(dataSource, plugin.getLogger());
+            }
+            case YAML -> new FileStorageProvider(plugin);
+            case BINARY -> new BinaryStorageProvider(plugin, false);
+            case SQLITE -> new SqliteStorageProvider(plugin);
+            case H2 -> new MvStoreStorageProvider(plugin, false);
+        };
+        provider.initialize();
+        closers.push(provider::shutdown);
+        return provider;
+    }
+
+    /**
+     * Streams the source into batches and writes them to the target in parallel.
+     *
+     * @return The number of accounts read and the number written.
+     */
+    private long[] copy(StorageProvider source, StorageProvider target, long total, long startTime, Consumer<Progress> progressListener) throws InterruptedException {
+        ExecutorService writers = Executors.newFixedThreadPool(writerThreads, runnable ->
+                Thread.ofPlatform().daemon().name("KartaEmerald-Migration-Writer").unstarted(runnable));
+        // Blocks the reader once enough batches are waiting, so memory use doesn't depend on the number of accounts
+        Semaphore pendingBatches = new Semaphore(writerThreads * 2);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        LongAdder written = new LongAdder();
+        AtomicLong copied = new AtomicLong();
+        AtomicLong nextProgress = new AtomicLong(startTime + PROGRESS_INTERVAL_NANOS);
+        AtomicLong nextBatchTime = new AtomicLong(startTime);
+        long batchIntervalNanos = maxAccountsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) * batchSize / maxAccountsPerSecond : 0;
+
+        AtomicReference<Map<UUID, Long>> batch = new AtomicReference<>(new HashMap<>());
+        Consumer<Map<UUID, Long>> submit = toWrite -> {
+            pendingBatches.acquireUninterruptibly();
+            writers.execute(() -> {
+                try {
+                    if (failure.get() == null) {
+                        written.add(writeBatch(target, toWrite));
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    pendingBatches.release();
+                }
+            });
+        };
+        try {
+            source.forEachAccount((uuid, balance) -> {
+                if (failure.get() != null) {
+                    return; // Nothing more is written; the failure is reported below
+                }
+                batch.get().put(uuid, balance);
+                if (batch.get().size() < batchSize) {
+                    return;
+                }
+                if (batchIntervalNanos > 0) {
+                    long wait = nextBatchTime.get() - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    nextBatchTime.set(Math.max(nextBatchTime.get(), System.nanoTime()) + batchIntervalNanos);
+                }
+                submit.accept(batch.getAndSet(new HashMap<>()));
+                long done = copied.addAndGet(batchSize);
+                long now = System.nanoTime();
+                if (now - nextProgress.get() >= 0) {
+                    nextProgress.set(now + PROGRESS_INTERVAL_NANOS);
+                    progressListener.accept(new Progress(done, total, done * TimeUnit.SECONDS.toNanos(1) / Math.max(1, now - startTime)));
+                }
+            });
+            if (!batch.get().isEmpty() && failure.get() == null) {
+                copied.addAndGet(batch.get().size());
+                submit.accept(batch.get());
+            }
+        } finally {
+            writers.shutdown();
+            if (!writers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                throw new IllegalStateException("Migration writers did not finish");
+            }
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("Failed to write accounts to " + to, failure.get());
+        }
+        long now = System.nanoTime();
+        progressListener.accept(new Progress(copied.get(), total, copied.get() * TimeUnit.SECONDS.toNanos(1) / Math.max(1, now - startTime)));
+        return new long[]{copied.get(), written.sum()};
+    }
+
+    /**
+     * Writes the accounts of a batch the target doesn't already hold with the same balance.
+     *
+     * @return The number of accounts written.
+     */
+    private static int writeBatch(StorageProvider target, Map<UUID, Long> batch) {
+        Map<UUID, Long> existing = target.getBalances(batch.keySet());
+        Map<UUID, PlayerData> changed = new HashMap<>();
+        batch.forEach((uuid, balance) -> {
+            if (!balance.equals(existing.get(uuid))) {
+                changed.put(uuid, new PlayerData(balance));
+            }
+        });
+        target.savePlayerDataBatch(changed);
+        return changed.size();
+    }
+
+    /**
+     * Counts the accounts of a storage and computes a checksum over them that doesn't depend on their order.
+     *
+     * @return The account count and the checksum.
+     */
+    private static long[] summarize(StorageProvider provider) {
+        AtomicInteger count = new AtomicInteger();
+        LongAdder checksum = new LongAdder();
+        provider.forEachAccount((uuid, balance) -> {
+            count.incrementAndGet();
+            checksum.add(mix(mix(uuid.getMostSignificantBits() ^ mix(uuid.getLeastSignificantBits())) ^ balance));
+        });
+        return new long[]{count.get(), checksum.sum()};
+    }
+
+    // The finalizer of SplitMix64, so that similar accounts don't cancel each other out in the sum
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,146 @@
+package com.minekarta.kec.storage;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * A fixed-size table of locks shared by all accounts. Each UUID maps to one stripe,
+ * so memory stays constant no matter how many players have ever been seen.
+ * Every stripe counts how often a thread had to wait for it.
+ */
+public final class StripedLocks {
+
+    private static final int MAX_STRIPES = 1 << 16;
+
+    private final ReentrantLock[] locks;
+    private final LongAdder[] contention;
+    private final int mask;
+
+    /**
+     * Constructs a new lock table.
+     * @param stripes The desired number of stripes, rounded up to the next power of two.
+     */
+    public StripedLocks(int stripes) {
+        int size = stripes <= 1 ? 1 : Integer.highestOneBit(Math.min(stripes, MAX_STRIPES) - 1) << 1;
+        this.locks = new ReentrantLock[size];
+        this.contention = new LongAdder[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+            contention[i] = new LongAdder();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Runs an operation while holding the stripe of one account.
+     *
+     * @param uuid The UUID of the account.
+     * @param operation The operation to run.
+     * @param <T> The result type.
+     * @return The result of the operation.
+     */
+    public <T> T withLock(@NotNull UUID uuid, @NotNull Supplier<T> operation) {
+        int stripe = stripeOf(uuid);
+        lock(stripe);
+        try {
+            return operation.get();
+        } finally {
+            locks[stripe].unlock();
+        }
+    }
+
+    /**
+     * Runs an operation while holding the stripes of two accounts.
+     * Stripes are always acquired in index order to avoid deadlocks, and a stripe
+     * shared by both accounts is only acquired once.
+     *
+     * @param first The UUID of the first account.
+     * @param second The UUID of the second account.
+     * @param operation The operation to run.
+     * @param <T> The result type.
+     * @return The result of the operation.
+     */
+    public <T> T withLocks(@NotNull UUID first, @NotNull UUID second, @NotNull Supplier<T> operation) {
+        int a = stripeOf(first);
+        int b = stripeOf(second);
+        if (a == b) {
+            return withLock(first, operation);
+        }
+        int low = Math.min(a, b);
+        int high = Math.max(a, b);
+        lock(low);
+        try {
+            lock(high);
+            try {
+                return operation.get();
+            } finally {
+                locks[high].unlock();
+            }
+        } finally {
+            locks[low].unlock();
+        }
+    }
+
+    /**
+     * Runs an operation while holding the stripes of any number of accounts.
+     * Stripes are acquired in index order, each one only once.
+     *
+     * @param uuids The UUIDs of the accounts.
+     * @param operation The operation to run.
+     * @param <T> The result type.
+     * @return The result of the operation.
+     */
+    public <T> T withLocks(@NotNull Collection<UUID> uuids, @NotNull Supplier<T> operation) {
+        int[] stripes = uuids.stream().mapToInt(this::stripeOf).distinct().sorted().toArray();
+        int acquired = 0;
+        try {
+            for (int stripe : stripes) {
+                lock(stripe);
+                acquired++;
+            }
+            return operation.get();
+        } finally {
+            for (int i = acquired - 1; i >= 0; i--) {
+                locks[stripes[i]].unlock();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of stripes in the table.
+     * @return The stripe count.
+     */
+    public int getStripeCount() {
+        return locks.length;
+    }
+
+    /**
+     * Gets how many times each stripe was found already held when a thread tried to acquire it.
+     * @return The contention count per stripe, indexed by stripe.
+     */
+    public long[] getContentionCounts() {
+        long[] counts = new long[contention.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = contention[i].sum();
+        }
+        return counts;
+    }
+
+    private void lock(int stripe) {
+        ReentrantLock lock = locks[stripe];
+        if (!lock.tryLock()) {
+            contention[stripe].increment();
+            lock.lock();
+        }
+    }
+
+    private int stripeOf(UUID uuid) {
+        int hash = uuid.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,355 @@
+package com.minekarta.kec.storage.provider;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A leaderboard kept on disk: every account as a fixed-size record, sorted by balance (highest first)
+ * with ties broken by UUID (descending), the same order as {@link BalanceRankIndex}.
+ * Leaderboard pages are a single positional read and ranks a binary search, so nothing but the
+ * file's page cache needs to be in memory.
+ * <p>
+ * The file starts with a 16-byte header followed by 24-byte records of {@code [balance][uuid msb][uuid lsb]}.
+ * Changes are applied by {@link #merge}, which rewrites the file in one sequential pass and swaps it in
+ * atomically. The header marks whether the file was closed cleanly; an index that was in use when the
+ * server stopped may be behind the player files and is not reopened.
+ */
+final class BalanceIndexFile {
+
+    private static final int MAGIC = 0x4B454349; // "KECI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+    private static final int STATE_OFFSET = 12;
+    private static final int STATE_IN_USE = 0;
+    private static final int STATE_CLEAN = 1;
+    private static final int RECORD_SIZE = 24;
+    private static final int BUFFER_RECORDS = 4096;
+
+    private static final Comparator<Map.Entry<UUID, Long>> ORDER =
+            Map.Entry.<UUID, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey()).reversed();
+
+    private final Path path;
+    // Guards the channel and count, which are replaced by every merge
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private int count;
+
+    private BalanceIndexFile(Path path, FileChannel channel, int count) {
+        this.path = path;
+        this.channel = channel;
+        this.count = count;
+    }
+
+    /**
+     * Opens an index that was closed cleanly and marks it as in use.
+     *
+     * @param path The index file.
+     * @return The index, or null if there is no usable index at that path.
+     */
+    static BalanceIndexFile openIfClean(@NotNull Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            int count = header.getInt(COUNT_OFFSET);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(STATE_OFFSET) != STATE_CLEAN
+                    || channel.size() != HEADER_SIZE + (long) count * RECORD_SIZE) {
+                channel.close();
+                return null;
+            }
+            writeState(channel, STATE_IN_USE);
+            return new BalanceIndexFile(path, channel, count);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a new index over the given balances, replacing any existing file.
+     *
+     * @param path The index file.
+     * @param balances A map of player UUIDs to their balances.
+     * @return The index, marked as in use.
+     */
+    static BalanceIndexFile create(@NotNull Path path, @NotNull Map<UUID, Long> balances) throws IOException {
+        List<Map.Entry<UUID, Long>> sorted = new ArrayList<>(balances.entrySet());
+        sorted.sort(ORDER);
+        int count = writeFile(path, new BalanceIndexFile(path, null, 0), sorted, Map.of());
+        return new BalanceIndexFile(path, FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE), count);
+    }
+
+    /**
+     * Applies a set of changes, rewriting the file.
+     *
+     * @param changes A map of player UUIDs to their new balances, or empty for deleted accounts.
+     */
+    void merge(@NotNull Map<UUID, OptionalLong> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<UUID, Long>> updated = new ArrayList<>();
+        changes.forEach((uuid, balance) -> balance.ifPresent(value -> updated.add(Map.entry(uuid, value))));
+        updated.sort(ORDER);
+
+        // Readers keep using the current file while the new one is written; only the swap excludes them
+        int newCount = writeFile(path, this, updated, changes);
+        FileChannel newChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lock.writeLock().lock();
+        try {
+            channel.close();
+            channel = newChannel;
+            count = newCount;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the records of {@code source}, minus the accounts in {@code changes}, merged with
+     * {@code updated} to a temporary file and moves it over {@code path}.
+     */
+    private static int writeFile(Path path, BalanceIndexFile source, List<Map.Entry<UUID, Long>> updated, Map<UUID, OptionalLong> changes) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        int written = 0;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+            buffer.position(HEADER_SIZE);
+            int next = 0;
+            for (RecordCursor cursor = source.cursor(); cursor.advance(); ) {
+                if (changes.containsKey(cursor.uuid)) {
+                    continue;
+                }
+                while (next < updated.size() && compare(updated.get(next).getValue(), updated.get(next).getKey(), cursor.balance, cursor.uuid) < 0) {
+                    writeRecord(out, buffer, updated.get(next).getValue(), updated.get(next).getKey());
+                    next++;
+                    written++;
+                }
+                writeRecord(out, buffer, cursor.balance, cursor.uuid);
+                written++;
+            }
+            for (; next < updated.size(); next++) {
+                writeRecord(out, buffer, updated.get(next).getValue(), updated.get(next).getKey());
+                written++;
+            }
+            flush(out, buffer);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putInt(COUNT_OFFSET, written);
+            header.putInt(STATE_OFFSET, STATE_IN_USE);
+            out.write(header, 0);
+            out.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    /**
+     * Gets the number of accounts in the index.
+     */
+    int size() {
+        lock.readLock().lock();
+        try {
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves a range of the highest balances, sorted in descending order.
+     *
+     * @param limit The maximum number of entries to return.
+     * @param offset The number of entries to skip.
+     * @return An ordered map of player UUIDs to their balances, highest first.
+     */
+    Map<UUID, Long> getRange(int limit, int offset) throws IOException {
+        Map<UUID, Long> result = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            int from = Math.max(0, offset);
+            int to = (int) Math.min(count, (long) from + Math.max(0, limit));
+            if (from >= to) {
+                return result;
+            }
+            ByteBuffer records = ByteBuffer.allocate((to - from) * RECORD_SIZE);
+            readFully(channel, records, recordOffset(from));
+            for (int i = 0; i < to - from; i++) {
+                int base = i * RECORD_SIZE;
+                result.put(new UUID(records.getLong(base + 8), records.getLong(base + 16)), records.getLong(base));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the 1-based position an account with the given balance has in the index.
+     *
+     * @param uuid The UUID of the player.
+     * @param balance The balance the index holds for the player.
+     * @return The rank, counting every account that sorts before it.
+     */
+    int getRank(@NotNull UUID uuid, long balance) throws IOException {
+        lock.readLock().lock();
+        try {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                record.clear();
+                readFully(channel, record, recordOffset(mid));
+                if (compare(record.getLong(0), new UUID(record.getLong(8), record.getLong(16)), balance, uuid) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low + 1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Performs an action for every account in the index, in leaderboard order.
+     * <p>
+     * The records are read through a separate handle on the file as it is now, and no lock is held,
+     * so a slow action doesn't hold up merges; a merge replaces the file rather than changing it.
+     */
+    void forEach(@NotNull BiConsumer<UUID, Long> action) throws IOException {
+        try (FileChannel snapshot = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(snapshot, header, 0);
+            for (RecordCursor cursor = new RecordCursor(snapshot, header.getInt(COUNT_OFFSET)); cursor.advance(); ) {
+                action.accept(cursor.uuid, cursor.balance);
+            }
+        }
+    }
+
+    /**
+     * Closes the index. Does nothing if it is already closed.
+     *
+     * @param clean Whether the index covers every saved change, so it can be reopened on the next start.
+     */
+    void close(boolean clean) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!channel.isOpen()) {
+                return;
+            }
+            if (clean) {
+                writeState(channel, STATE_CLEAN);
+            }
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private RecordCursor cursor() {
+        return new RecordCursor(channel, count);
+    }
+
+    /**
+     * Reads the records of the index sequentially, in buffered chunks.
+     */
+    private static final class RecordCursor {
+        private final FileChannel channel;
+        private final int count;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_RECORDS * RECORD_SIZE);
+        private int index;
+        long balance;
+        UUID uuid;
+
+        RecordCursor(FileChannel channel, int count) {
+            this.channel = channel;
+            this.count = count;
+            buffer.limit(0);
+        }
+
+        boolean advance() throws IOException {
+            if (index >= count) {
+                return false;
+            }
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                buffer.limit(Math.min(BUFFER_RECORDS, count - index) * RECORD_SIZE);
+                readFully(channel, buffer, recordOffset(index));
+                buffer.flip();
+            }
+            balance = buffer.getLong();
+            uuid = new UUID(buffer.getLong(), buffer.getLong());
+            index++;
+            return true;
+        }
+    }
+
+    private static void writeRecord(FileChannel out, ByteBuffer buffer, long balance, UUID uuid) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) {
+            flush(out, buffer);
+        }
+        buffer.putLong(balance);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void writeState(FileChannel channel, int state) throws IOException {
+        ByteBuffer value = ByteBuffer.allocate(4);
+        value.putInt(0, state);
+        channel.write(value, STATE_OFFSET);
+        channel.force(false);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the balance index");
+            }
+            position += read;
+        }
+    }
+
+    private static long recordOffset(int index) {
+        return HEADER_SIZE + (long) index * RECORD_SIZE;
+    }
+
+    private static int compare(long balanceA, UUID uuidA, long balanceB, UUID uuidB) {
+        int cmp = Long.compare(balanceB, balanceA);
+        return cmp != 0 ? cmp : uuidB.compareTo(uuidA);
+    }
+}
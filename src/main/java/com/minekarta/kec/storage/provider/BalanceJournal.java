@@ -0,0 +1,425 @@
+package com.minekarta.kec.storage.provider;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only log of balance changes, used to recover changes made since the last snapshot.
+ * <p>
+ * Each record holds the balance of an account after a change (or a deletion marker) and is framed as
+ * {@code [int payload length][int CRC32C of payload][payload]}, so a record torn by a crash is detected
+ * and ignored on replay. Because records are absolute values rather than deltas, replaying a record
+ * more than once is harmless.
+ * <p>
+ * Writers append to an in-memory buffer and then wait for a group commit: the first waiting thread
+ * writes and syncs everything buffered so far, so concurrent changes share one {@code fsync}.
+ * Segments are rotated on every checkpoint and deleted once the snapshot covers them.
+ */
+final class BalanceJournal {
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final byte TYPE_BALANCE = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final int PAYLOAD_SIZE = 1 + 16 + 8;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = HEADER_SIZE + PAYLOAD_SIZE;
+
+    /**
+     * A change recovered from the journal.
+     *
+     * @param uuid The UUID of the account.
+     * @param balance The balance after the change, or empty if the account was deleted.
+     */
+    record Entry(UUID uuid, OptionalLong balance) {
+    }
+
+    private final Path directory;
+    private final Logger logger;
+    private final boolean fsync;
+    private final Function<UUID, OptionalLong> currentBalance;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    private ByteBuffer pending = ByteBuffer.allocate(64 * RECORD_SIZE);
+    private long appendedSequence;
+    private long durableSequence;
+    private boolean committing;
+
+    private FileChannel channel;
+    private long segmentNumber;
+    private long segmentSize;
+    // Size to cut the current segment back to after a failed write left part of a batch in it, or -1
+    private long tornSegmentSize = -1;
+
+    /**
+     * @param directory The directory holding the journal segments.
+     * @param logger The logger to report problems to.
+     * @param fsync Whether each group commit is forced to the storage device.
+     * @param currentBalance Looks up the current balance of an account, or empty if it doesn't exist.
+     */
+    BalanceJournal(@NotNull Path directory, @NotNull Logger logger, boolean fsync, @NotNull Function<UUID, OptionalLong> currentBalance) {
+        this.directory = directory;
+        this.logger = logger;
+        this.fsync = fsync;
+        this.currentBalance = currentBalance;
+    }
+
+    /**
+     * Reads all existing segments, oldest first, and opens a new segment for writing.
+     * The replayed segments stay on disk until the next successful {@link #checkpoint}.
+     *
+     * @return The recovered changes, in the order they were made.
+     */
+    List<Entry> open() throws IOException {
+        Files.createDirectories(directory);
+        List<Entry> entries = read(directory, logger);
+        long lastSegment = 0;
+        for (Path segment : listSegments(directory)) {
+            lastSegment = Math.max(lastSegment, segmentNumber(segment));
+        }
+        openSegment(lastSegment + 1);
+        return entries;
+    }
+
+    /**
+     * Reads all segments in a journal directory without opening the journal for writing.
+     *
+     * @param directory The directory holding the journal segments.
+     * @param logger The logger to report corrupt records to.
+     * @return The recorded changes, in the order they were made.
+     */
+    static List<Entry> read(@NotNull Path directory, @NotNull Logger logger) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            for (Path segment : listSegments(directory)) {
+                replaySegment(segment, entries, logger);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Records the current state of an account and waits until the record is durable.
+     * The balance is read while holding the journal lock, so the last record of an account
+     * always reflects its latest change, however concurrent changes interleave.
+     *
+     * @param uuid The UUID of the account that changed.
+     * @throws UncheckedIOException If the record couldn't be written. The change is already applied in
+     *                              memory and is still persisted by the next snapshot, it just isn't crash-safe until then.
+     */
+    void append(@NotNull UUID uuid) {
+        append(List.of(uuid));
+    }
+
+    /**
+     * Records the current state of several accounts and waits until the records are durable.
+     * The records are buffered next to each other, so they are written by the same group commit
+     * instead of each waiting for a commit of its own.
+     *
+     * @param uuids The UUIDs of the accounts that changed.
+     * @throws UncheckedIOException If the records couldn't be written; see {@link #append(UUID)}.
+     */
+    void append(@NotNull Collection<UUID> uuids) {
+        if (uuids.isEmpty()) {
+            return;
+        }
+        long sequence;
+        lock.lock();
+        try {
+            if (pending.remaining() < uuids.size() * RECORD_SIZE) {
+                pending = grow(pending, pending.position() + uuids.size() * RECORD_SIZE);
+            }
+            for (UUID uuid : uuids) {
+                writeRecord(pending, uuid, currentBalance.apply(uuid));
+            }
+            appendedSequence += uuids.size();
+            sequence = appendedSequence;
+        } finally {
+            lock.unlock();
+        }
+        awaitCommit(sequence);
+    }
+
+    /**
+     * Waits until the given record has been written, becoming the group commit leader if nobody else is.
+     * If the write fails, whatever part of the batch reached the segment is cut off again and the batch
+     * goes back into the buffer, so the next commit retries it; the caller that led the failed
+     * commit gets the error, as do callers whose own retry fails.
+     */
+    private void awaitCommit(long sequence) {
+        lock.lock();
+        try {
+            while (durableSequence < sequence) {
+                if (committing) {
+                    committed.awaitUninterruptibly();
+                    continue;
+                }
+                if (tornSegmentSize >= 0) {
+                    try {
+                        repairSegment();
+                    } catch (IOException e) {
+                        // Anything written after the torn batch would be lost on replay
+                        throw new UncheckedIOException("The balance journal can't be written to", e);
+                    }
+                }
+                committing = true;
+                ByteBuffer batch = pending;
+                long batchSequence = appendedSequence;
+                long batchStart = segmentSize;
+                pending = ByteBuffer.allocate(batch.capacity());
+                FileChannel target = channel;
+                lock.unlock();
+                IOException failure = null;
+                try {
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        target.write(batch);
+                    }
+                    if (fsync) {
+                        target.force(false);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    lock.lock();
+                    committing = false;
+                    committed.signalAll();
+                }
+                if (failure != null) {
+                    tornSegmentSize = batchStart;
+                    try {
+                        repairSegment();
+                    } catch (IOException e) {
+                        failure.addSuppressed(e);
+                    }
+                    batch.position(batch.limit());
+                    pending.flip();
+                    ByteBuffer retry = grow(batch, batch.limit() + pending.limit());
+                    retry.put(pending);
+                    pending = retry;
+                    throw new UncheckedIOException("Failed to write the balance journal", failure);
+                }
+                segmentSize += batch.limit();
+                durableSequence = batchSequence;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cuts a partly written batch off the end of the current segment, or moves on to a new
+     * segment if that fails, so replay never stops at a torn record with good ones after it.
+     */
+    private void repairSegment() throws IOException {
+        try {
+            channel.truncate(tornSegmentSize);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to truncate the balance journal, starting a new segment", e);
+            FileChannel previous = channel;
+            openSegment(segmentNumber + 1);
+            try {
+                previous.close();
+            } catch (IOException closeError) {
+                logger.log(Level.WARNING, "Failed to close the previous balance journal segment", closeError);
+            }
+        }
+        tornSegmentSize = -1;
+    }
+
+    /**
+     * Copies the written part of a buffer into a larger one, leaving it ready for more writes.
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minCapacity));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    /**
+     * Gets the size of the segment currently being written.
+     * @return The segment size in bytes.
+     */
+    long getSegmentSize() {
+        lock.lock();
+        try {
+            return segmentSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Compacts the journal around a snapshot. A new segment is opened for writing; then
+     * {@code snapshot} persists every change made so far. If it succeeds, all older segments
+     * are deleted, as their records are now covered by the snapshot.
+     * <p>
+     * Records still buffered during the switch simply land in the new segment. Every record in the
+     * old segments belongs to a change that was marked dirty before it was appended, so the snapshot covers it.
+     * If the new segment can't be opened, writing continues in the current one and the snapshot
+     * still runs; only the old segments are kept.
+     *
+     * @param snapshot Persists all changes up to now; returns true if every change was saved.
+     * @return The result of {@code snapshot}.
+     */
+    synchronized boolean checkpoint(@NotNull BooleanSupplier snapshot) {
+        boolean rotated = false;
+        long previousSegment;
+        lock.lock();
+        try {
+            while (committing) {
+                committed.awaitUninterruptibly();
+            }
+            previousSegment = segmentNumber;
+            FileChannel previousChannel = channel;
+            try {
+                openSegment(segmentNumber + 1);
+                rotated = true;
+                tornSegmentSize = -1; // A torn batch at the end of the previous segment is simply ignored on replay
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Failed to rotate the balance journal, keeping the current segment", e);
+            }
+            if (rotated) {
+                try {
+                    previousChannel.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to close the previous balance journal segment", e);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!snapshot.getAsBoolean()) {
+            return false; // Keep the old segments; they are replayed again if the server crashes
+        }
+        if (!rotated) {
+            return true; // The current segment holds records the snapshot may not cover, so nothing is deleted
+        }
+        try {
+            for (Path segment : listSegments(directory)) {
+                if (segmentNumber(segment) <= previousSegment) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to delete old balance journal segments", e);
+        }
+        return true;
+    }
+
+    /**
+     * Writes out anything still buffered and closes the journal.
+     */
+    void close() {
+        long sequence;
+        lock.lock();
+        try {
+            sequence = appendedSequence;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            awaitCommit(sequence);
+        } catch (UncheckedIOException e) {
+            logger.log(Level.SEVERE, "Failed to write the last balance journal records", e);
+        }
+        lock.lock();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to close the balance journal", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void openSegment(long number) throws IOException {
+        this.channel = FileChannel.open(directory.resolve(SEGMENT_PREFIX + number + SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.segmentNumber = number;
+        this.segmentSize = channel.size();
+    }
+
+    private static void replaySegment(Path segment, List<Entry> out, Logger logger) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segment));
+        CRC32C crc = new CRC32C();
+        while (data.remaining() >= HEADER_SIZE) {
+            int start = data.position();
+            int length = data.getInt();
+            int checksum = data.getInt();
+            if (length != PAYLOAD_SIZE || data.remaining() < length) {
+                data.position(start);
+                break;
+            }
+            crc.reset();
+            crc.update(data.array(), data.position(), length);
+            if ((int) crc.getValue() != checksum) {
+                data.position(start);
+                break;
+            }
+            byte type = data.get();
+            UUID uuid = new UUID(data.getLong(), data.getLong());
+            long balance = data.getLong();
+            out.add(new Entry(uuid, type == TYPE_DELETE ? OptionalLong.empty() : OptionalLong.of(balance)));
+        }
+        if (data.hasRemaining()) {
+            logger.warning("Ignored " + data.remaining() + " bytes of incomplete or corrupt records at the end of " + segment.getFileName() + ".");
+        }
+    }
+
+    private static void writeRecord(ByteBuffer buffer, UUID uuid, OptionalLong balance) {
+        int payloadStart = buffer.position() + HEADER_SIZE;
+        buffer.position(payloadStart);
+        buffer.put(balance.isPresent() ? TYPE_BALANCE : TYPE_DELETE);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        buffer.putLong(balance.orElse(0L));
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), payloadStart, PAYLOAD_SIZE);
+        buffer.putInt(payloadStart - HEADER_SIZE, PAYLOAD_SIZE);
+        buffer.putInt(payloadStart - HEADER_SIZE + 4, (int) crc.getValue());
+    }
+
+    private static List<Path> listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)))
+                    .toList();
+        }
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
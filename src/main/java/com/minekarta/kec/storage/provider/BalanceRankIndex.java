@@ -0,0 +1,288 @@
+package com.minekarta.kec.storage.provider;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An order-statistic index over player balances, kept up to date incrementally.
+ * Accounts are ordered by balance (highest first), with ties broken by UUID (descending).
+ * <p>
+ * Backed by a treap whose nodes track their subtree size, so rank lookups and
+ * leaderboard pages cost O(log n) instead of sorting every account.
+ */
+public final class BalanceRankIndex {
+
+    private static final class Node {
+        final UUID uuid;
+        final long balance;
+        final int priority;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(UUID uuid, long balance, int priority) {
+            this.uuid = uuid;
+            this.balance = balance;
+            this.priority = priority;
+        }
+    }
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<UUID, Node> nodes = new HashMap<>();
+    private Node root;
+
+    /**
+     * Builds an index over the given balances. Sorting is done in parallel
+     * and the tree is then assembled in linear time.
+     *
+     * @param balances A map of player UUIDs to their balances.
+     * @return The populated index.
+     */
+    public static BalanceRankIndex build(@NotNull Map<UUID, Long> balances) {
+        BalanceRankIndex index = new BalanceRankIndex();
+        Node[] sorted = new Node[balances.size()];
+        int i = 0;
+        for (Map.Entry<UUID, Long> entry : balances.entrySet()) {
+            sorted[i++] = new Node(entry.getKey(), entry.getValue(), 0);
+        }
+        Arrays.parallelSort(sorted, (a, b) -> compare(a.balance, a.uuid, b.balance, b.uuid));
+
+        index.root = buildBalanced(sorted, 0, sorted.length - 1, 0);
+        for (Node node : sorted) {
+            index.nodes.put(node.uuid, node);
+        }
+        return index;
+    }
+
+    private static Node buildBalanced(Node[] sorted, int from, int to, int depth) {
+        if (from > to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        // Priorities only need to decrease with depth to satisfy the heap order;
+        // nodes inserted later get random priorities and settle below the bulk-built levels.
+        Node node = new Node(sorted[mid].uuid, sorted[mid].balance, Integer.MAX_VALUE - depth);
+        sorted[mid] = node;
+        node.left = buildBalanced(sorted, from, mid - 1, depth + 1);
+        node.right = buildBalanced(sorted, mid + 1, to, depth + 1);
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    /**
+     * Sets the balance of an account, adding it to the index if needed.
+     *
+     * @param uuid The UUID of the player.
+     * @param balance The new balance.
+     */
+    public void update(@NotNull UUID uuid, long balance) {
+        lock.writeLock().lock();
+        try {
+            Node existing = nodes.get(uuid);
+            if (existing != null) {
+                if (existing.balance == balance) {
+                    return;
+                }
+                root = delete(root, existing.balance, uuid);
+            }
+            Node node = new Node(uuid, balance, ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE - 64));
+            nodes.put(uuid, node);
+            root = insert(root, node);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an account from the index.
+     *
+     * @param uuid The UUID of the player.
+     */
+    public void remove(@NotNull UUID uuid) {
+        lock.writeLock().lock();
+        try {
+            Node existing = nodes.remove(uuid);
+            if (existing != null) {
+                root = delete(root, existing.balance, uuid);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the 1-based leaderboard position of an account.
+     *
+     * @param uuid The UUID of the player.
+     * @return The rank, or 0 if the account is not indexed.
+     */
+    public int getRank(@NotNull UUID uuid) {
+        lock.readLock().lock();
+        try {
+            Node target = nodes.get(uuid);
+            if (target == null) {
+                return 0;
+            }
+            int before = 0;
+            Node node = root;
+            while (node != null) {
+                int cmp = compare(target.balance, uuid, node.balance, node.uuid);
+                if (cmp == 0) {
+                    return before + size(node.left) + 1;
+                }
+                if (cmp < 0) {
+                    node = node.left;
+                } else {
+                    before += size(node.left) + 1;
+                    node = node.right;
+                }
+            }
+            return 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieves a range of the index, highest balance first.
+     *
+     * @param limit The maximum number of entries to return.
+     * @param offset The number of entries to skip.
+     * @return An ordered map of player UUIDs to their balances.
+     */
+    public Map<UUID, Long> getRange(int limit, int offset) {
+        Map<UUID, Long> result = new LinkedHashMap<>();
+        if (limit <= 0) {
+            return result;
+        }
+        lock.readLock().lock();
+        try {
+            collect(root, Math.max(0, offset), limit, result);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of indexed accounts.
+     *
+     * @return The account count.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size(root);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Collects up to {@code limit} entries starting at position {@code skip} within the subtree,
+     * only descending into subtrees that overlap the requested range.
+     */
+    private static void collect(Node node, int skip, int limit, Map<UUID, Long> out) {
+        if (node == null || out.size() >= limit) {
+            return;
+        }
+        int leftSize = size(node.left);
+        if (skip < leftSize) {
+            collect(node.left, skip, limit, out);
+        }
+        if (out.size() >= limit) {
+            return;
+        }
+        if (skip <= leftSize) {
+            out.put(node.uuid, node.balance);
+        }
+        collect(node.right, Math.max(0, skip - leftSize - 1), limit, out);
+    }
+
+    private static Node insert(Node node, Node inserted) {
+        if (node == null) {
+            return inserted;
+        }
+        if (compare(inserted.balance, inserted.uuid, node.balance, node.uuid) < 0) {
+            node.left = insert(node.left, inserted);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, inserted);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    private static Node delete(Node node, long balance, UUID uuid) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = compare(balance, uuid, node.balance, node.uuid);
+        if (cmp < 0) {
+            node.left = delete(node.left, balance, uuid);
+        } else if (cmp > 0) {
+            node.right = delete(node.right, balance, uuid);
+        } else {
+            return merge(node.left, node.right);
+        }
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.size = 1 + size(left.left) + size(left.right);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.size = 1 + size(right.left) + size(right.right);
+        return right;
+    }
+
+    private static Node rotateRight(Node node) {
+        Node pivot = node.left;
+        node.left = pivot.right;
+        pivot.right = node;
+        node.size = 1 + size(node.left) + size(node.right);
+        pivot.size = 1 + size(pivot.left) + size(pivot.right);
+        return pivot;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node pivot = node.right;
+        node.right = pivot.left;
+        pivot.left = node;
+        node.size = 1 + size(node.left) + size(node.right);
+        pivot.size = 1 + size(pivot.left) + size(pivot.right);
+        return pivot;
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int compare(long balanceA, UUID uuidA, long balanceB, UUID uuidB) {
+        int cmp = Long.compare(balanceB, balanceA);
+        return cmp != 0 ? cmp : uuidB.compareTo(uuidA);
+    }
+}
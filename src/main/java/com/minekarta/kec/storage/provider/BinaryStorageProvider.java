@@ -0,0 +1,525 @@
+package com.minekarta.kec.storage.provider;
+
+import com.minekarta.kec.KartaEmeraldCurrencyPlugin;
+import com.minekarta.kec.api.BalanceMutation;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ObjLongConsumer;
+import java.util.logging.Level;
+
+/**
+ * Stores all accounts in a single memory-mapped file of fixed-size records.
+ * <p>
+ * The file starts with a 64-byte header followed by 24-byte records of
+ * {@code [uuid msb][uuid lsb][balance]}. Balances are updated in place with atomic
+ * operations on the mapping, so the file is always current and only the OS decides when
+ * pages reach the disk; {@code storage.binary.sync-interval-seconds} bounds how long that takes.
+ * An in-memory open-addressing index maps UUIDs to record slots.
+ */
+public class BinaryStorageProvider implements StorageProvider {
+
+    private static final String FILE_NAME = "accounts.dat";
+    private static final int MAGIC = 0x4B454342; // "KECB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_COUNT_OFFSET = 8;
+    // Set while a new file is filled from the YAML storage, and cleared once everything imported is on disk
+    private static final int IMPORT_STATE_OFFSET = 12;
+    private static final int IMPORT_PENDING = 1;
+    private static final int RECORD_SIZE = 24;
+    private static final int BALANCE_OFFSET = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    // forEachAccount copies this many slots at a time, so the index lock is never held while the action runs
+    private static final int ITERATION_PAGE_SLOTS = 4096;
+
+    // Atomic access to the longs of a direct buffer; every balance sits on an 8-byte boundary
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final KartaEmeraldCurrencyPlugin plugin;
+    private final Path filePath;
+
+    // Guards the index and record allocation; lookups use optimistic reads and never block on each other
+    private final StampedLock indexLock = new StampedLock();
+    private UuidSlotIndex index;
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int recordCount;
+
+    private FileChannel channel;
+    // Replaced when the file grows. Older mappings stay valid and share the same pages, so a thread
+    // still holding one keeps operating on the live data. Always read it after looking up the slot:
+    // a slot allocated by the growth lies beyond the end of older mappings.
+    private volatile MappedByteBuffer buffer;
+
+    private final Set<UUID> pendingRankUpdates = ConcurrentHashMap.newKeySet();
+    private BalanceRankIndex rankIndex = new BalanceRankIndex();
+    // Serializes draining the pending updates, so an older balance can never overwrite a newer one in the index
+    private final ReentrantLock rankSyncLock = new ReentrantLock();
+
+    private BukkitTask syncTask;
+    private final boolean importLegacyData;
+
+    public BinaryStorageProvider(KartaEmeraldCurrencyPlugin plugin) {
+        this(plugin, true);
+    }
+
+    /**
+     * Constructs a new BinaryStorageProvider.
+     * @param plugin The plugin instance.
+     * @param importLegacyData Whether a new file is filled from the player files and journal of the YAML storage.
+     */
+    public BinaryStorageProvider(KartaEmeraldCurrencyPlugin plugin, boolean importLegacyData) {
+        this.plugin = plugin;
+        this.filePath = plugin.getDataFolder().toPath().resolve(FILE_NAME);
+        this.importLegacyData = importLegacyData;
+    }
+
+    @Override
+    public void initialize() {
+        try {
+            Files.createDirectories(filePath.getParent());
+            boolean created = !Files.exists(filePath);
+            this.channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (!created && !loadFile()) {
+                plugin.getLogger().warning(FILE_NAME + " was left behind by an import that didn't finish. Starting over...");
+                created = true;
+            }
+            if (created) {
+                createFile();
+                if (importLegacyData) {
+                    buffer.putInt(IMPORT_STATE_OFFSET, IMPORT_PENDING);
+                    buffer.force();
+                    importYamlData();
+                    buffer.force();
+                    // Cleared last, so a crash during the import is noticed on the next start
+                    buffer.putInt(IMPORT_STATE_OFFSET, 0);
+                    buffer.force();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open " + FILE_NAME, e);
+        }
+
+        Map<UUID, Long> loaded = new HashMap<>();
+        forEachAccount(loaded::put);
+        this.rankIndex = BalanceRankIndex.build(loaded);
+        plugin.getLogger().info("Loaded " + loaded.size() + " accounts from " + FILE_NAME + ".");
+
+        long interval = Math.max(1L, plugin.getConfig().getLong("storage.binary.sync-interval-seconds", 30)) * 20L;
+        this.syncTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::sync, interval, interval);
+    }
+
+    @Override
+    public void shutdown() {
+        if (syncTask != null) {
+            syncTask.cancel();
+        }
+        sync();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to close " + FILE_NAME, e);
+        }
+    }
+
+    private void createFile() throws IOException {
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) INITIAL_CAPACITY * RECORD_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(RECORD_COUNT_OFFSET, 0);
+        buffer.putInt(IMPORT_STATE_OFFSET, 0);
+        this.index = new UuidSlotIndex(INITIAL_CAPACITY);
+        this.recordCount = 0;
+    }
+
+    /**
+     * Loads the index from an existing file.
+     *
+     * @return False if the file was left behind by an import that didn't finish, and nothing was loaded.
+     */
+    private boolean loadFile() throws IOException {
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            throw new IOException(FILE_NAME + " is truncated");
+        }
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(FILE_NAME + " is not a KartaEmeraldCurrency account file of a supported version");
+        }
+        if (buffer.getInt(IMPORT_STATE_OFFSET) == IMPORT_PENDING) {
+            return false;
+        }
+        int count = buffer.getInt(RECORD_COUNT_OFFSET);
+        if (HEADER_SIZE + (long) count * RECORD_SIZE > size) {
+            throw new IOException(FILE_NAME + " is truncated: expected " + count + " records");
+        }
+
+        UuidSlotIndex loaded = new UuidSlotIndex(count);
+        for (int slot = 0; slot < count; slot++) {
+            int offset = recordOffset(slot);
+            long msb = buffer.getLong(offset);
+            long lsb = buffer.getLong(offset + 8);
+            if (msb == 0 && lsb == 0) {
+                freeSlots.push(slot); // Deleted account
+            } else {
+                loaded.put(msb, lsb, slot);
+            }
+        }
+        this.index = loaded;
+        this.recordCount = count;
+        return true;
+    }
+
+    /**
+     * Imports the per-player files of the YAML storage, plus any changes still in its journal,
+     * the first time this storage is used. The YAML data is left in place as a backup.
+     */
+    private void importYamlData() throws IOException {
+        Path dataFolder = plugin.getDataFolder().toPath().resolve("data");
+        if (!Files.isDirectory(dataFolder)) {
+            return;
+        }
+        Yaml yaml = FileStorageProvider.createYaml();
+        AtomicInteger imported = new AtomicInteger();
+        FileStorageProvider.forEachPlayerFile(dataFolder, file -> {
+            String fileName = file.getFileName().toString();
+            try {
+                UUID uuid = UUID.fromString(fileName.substring(0, fileName.length() - 4));
+                PlayerData data = PlayerDataCodec.decode(Files.readAllBytes(file), () -> yaml);
+                if (data != null) {
+                    createRecord(uuid, data.getBalance());
+                    imported.incrementAndGet();
+                }
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to import player data from " + fileName, e);
+            }
+        });
+        // Changes the YAML storage journaled but never wrote to its files
+        for (BalanceJournal.Entry entry : BalanceJournal.read(plugin.getDataFolder().toPath().resolve("journal"), plugin.getLogger())) {
+            if (entry.balance().isPresent()) {
+                savePlayerData(entry.uuid(), new PlayerData(entry.balance().getAsLong()));
+            } else {
+                deletePlayerData(entry.uuid());
+            }
+        }
+        if (imported.get() > 0) {
+            plugin.getLogger().info("Imported " + imported.get() + " accounts from data/ into " + FILE_NAME + ".");
+        }
+    }
+
+    /**
+     * Forces all changes to the storage device.
+     */
+    public void sync() {
+        MappedByteBuffer current = buffer;
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    @Override
+    public Optional<PlayerData> getPlayerData(@NotNull UUID uuid) {
+        int slot = slotOf(uuid);
+        return slot < 0 ? Optional.empty() : Optional.of(new PlayerData(readBalance(slot)));
+    }
+
+    @Override
+    public Map<UUID, Long> getBalances(@NotNull Collection<UUID> uuids) {
+        Map<UUID, Long> result = new HashMap<>();
+        for (UUID uuid : uuids) {
+            int slot = slotOf(uuid);
+            if (slot >= 0) {
+                result.put(uuid, readBalance(slot));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void savePlayerData(@NotNull UUID uuid, @NotNull PlayerData data) {
+        int offset = balanceOffset(slotOrCreate(uuid));
+        LONGS.setVolatile(buffer, offset, data.getBalance());
+        pendingRankUpdates.add(uuid);
+    }
+
+    @Override
+    public boolean supportsAtomicDeltas() {
+        return true;
+    }
+
+    @Override
+    public long addBalance(@NotNull UUID uuid, long amount) {
+        int offset = balanceOffset(slotOrCreate(uuid));
+        long newBalance = (long) LONGS.getAndAdd(buffer, offset, amount) + amount;
+        pendingRankUpdates.add(uuid);
+        return newBalance;
+    }
+
+    @Override
+    public long removeBalance(@NotNull UUID uuid, long amount) {
+        int offset = balanceOffset(slotOrCreate(uuid));
+        MappedByteBuffer buf = buffer;
+        long current;
+        long newBalance;
+        do {
+            current = (long) LONGS.getVolatile(buf, offset);
+            newBalance = Math.max(0, current - amount);
+        } while (!LONGS.compareAndSet(buf, offset, current, newBalance));
+        pendingRankUpdates.add(uuid);
+        return newBalance;
+    }
+
+    @Override
+    public OptionalLong withdrawBalance(@NotNull UUID uuid, long amount) {
+        int slot = slotOf(uuid);
+        if (slot < 0) {
+            return amount > 0 ? OptionalLong.empty() : OptionalLong.of(addBalance(uuid, 0));
+        }
+        int offset = balanceOffset(slot);
+        MappedByteBuffer buf = buffer;
+        long current;
+        do {
+            current = (long) LONGS.getVolatile(buf, offset);
+            if (current < amount) {
+                return OptionalLong.empty();
+            }
+        } while (!LONGS.compareAndSet(buf, offset, current, current - amount));
+        pendingRankUpdates.add(uuid);
+        return OptionalLong.of(current - amount);
+    }
+
+    @Override
+    public List<OptionalLong> applyMutations(@NotNull List<BalanceMutation> mutations) {
+        MutationBatch batch = new MutationBatch(mutations);
+        for (UUID uuid : batch.accounts()) {
+            int slot = batch.createsAccount(uuid) ? slotOrCreate(uuid) : slotOf(uuid);
+            if (slot < 0) {
+                batch.apply(uuid, 0L); // Nothing to remove from; only records the results
+                continue;
+            }
+            int offset = balanceOffset(slot);
+            MappedByteBuffer buf = buffer;
+            long current;
+            long newBalance;
+            do {
+                current = (long) LONGS.getVolatile(buf, offset);
+                newBalance = batch.apply(uuid, current);
+            } while (!LONGS.compareAndSet(buf, offset, current, newBalance));
+            pendingRankUpdates.add(uuid);
+        }
+        return batch.results();
+    }
+
+    @Override
+    public void deletePlayerData(@NotNull UUID uuid) {
+        long stamp = indexLock.writeLock();
+        try {
+            int slot = index.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (slot < 0) {
+                return;
+            }
+            index.remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            // The slot is only reused after a restart, so a concurrent update that already
+            // looked it up can't end up in another player's record
+            MappedByteBuffer buf = buffer;
+            buf.putLong(recordOffset(slot), 0L);
+            buf.putLong(recordOffset(slot) + 8, 0L);
+            LONGS.setVolatile(buf, balanceOffset(slot), 0L);
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+        pendingRankUpdates.add(uuid);
+    }
+
+    @Override
+    public void forEachAccount(@NotNull ObjLongConsumer<UUID> action) {
+        UUID[] uuids = new UUID[ITERATION_PAGE_SLOTS];
+        long[] balances = new long[ITERATION_PAGE_SLOTS];
+        // Slots are only ever appended, and deleted ones are not reused before a restart, so paging by slot misses nothing
+        for (int from = 0; ; from += ITERATION_PAGE_SLOTS) {
+            int found = 0;
+            boolean last;
+            long stamp = indexLock.readLock();
+            try {
+                MappedByteBuffer buf = buffer;
+                int to = Math.min(recordCount, from + ITERATION_PAGE_SLOTS);
+                for (int slot = from; slot < to; slot++) {
+                    int offset = recordOffset(slot);
+                    long msb = buf.getLong(offset);
+                    long lsb = buf.getLong(offset + 8);
+                    if (msb != 0 || lsb != 0) {
+                        uuids[found] = new UUID(msb, lsb);
+                        balances[found++] = (long) LONGS.getVolatile(buf, offset + BALANCE_OFFSET);
+                    }
+                }
+                last = to == recordCount;
+            } finally {
+                indexLock.unlockRead(stamp);
+            }
+            for (int i = 0; i < found; i++) {
+                action.accept(uuids[i], balances[i]);
+            }
+            if (last) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Map<UUID, Long> getTopBalances(int limit, int offset) {
+        return syncRankIndex().getRange(limit, offset);
+    }
+
+    @Override
+    public int getRank(@NotNull UUID uuid) {
+        return syncRankIndex().getRank(uuid);
+    }
+
+    @Override
+    public int getAccountCount() {
+        long stamp = indexLock.readLock();
+        try {
+            return index.size();
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    private int slotOf(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = indexLock.tryOptimisticRead();
+        int slot = index.get(msb, lsb);
+        if (indexLock.validate(stamp)) {
+            return slot;
+        }
+        stamp = indexLock.readLock();
+        try {
+            return index.get(msb, lsb);
+        } finally {
+            indexLock.unlockRead(stamp);
+        }
+    }
+
+    private int slotOrCreate(UUID uuid) {
+        int slot = slotOf(uuid);
+        return slot >= 0 ? slot : createRecord(uuid, 0L);
+    }
+
+    /**
+     * Allocates a record for a new account, growing the file if needed.
+     * If another thread created the account first, its slot is returned instead.
+     */
+    private int createRecord(UUID uuid, long balance) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        long stamp = indexLock.writeLock();
+        try {
+            int existing = index.get(msb, lsb);
+            if (existing >= 0) {
+                return existing;
+            }
+            int slot;
+            boolean appended = freeSlots.isEmpty();
+            if (appended) {
+                slot = recordCount;
+                ensureCapacity(slot + 1);
+            } else {
+                slot = freeSlots.pop();
+            }
+            MappedByteBuffer buf = buffer;
+            int offset = recordOffset(slot);
+            buf.putLong(offset, msb);
+            buf.putLong(offset + 8, lsb);
+            LONGS.setVolatile(buf, offset + BALANCE_OFFSET, balance);
+            if (appended) {
+                // The count is written last, so a record is never counted before it is complete
+                recordCount++;
+                buf.putInt(RECORD_COUNT_OFFSET, recordCount);
+            }
+            index.put(msb, lsb, slot);
+            pendingRankUpdates.add(uuid);
+            return slot;
+        } finally {
+            indexLock.unlockWrite(stamp);
+        }
+    }
+
+    private void ensureCapacity(int records) {
+        MappedByteBuffer current = buffer;
+        long required = HEADER_SIZE + (long) records * RECORD_SIZE;
+        if (required <= current.capacity()) {
+            return;
+        }
+        long newSize = Math.max(required, HEADER_SIZE + (long) (current.capacity() - HEADER_SIZE) * 2);
+        if (newSize > Integer.MAX_VALUE) {
+            throw new IllegalStateException(FILE_NAME + " cannot hold more than " + (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE + " accounts");
+        }
+        try {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to grow " + FILE_NAME, e);
+        }
+    }
+
+    private long readBalance(int slot) {
+        return (long) LONGS.getVolatile(buffer, balanceOffset(slot));
+    }
+
+    /**
+     * Applies all pending balance changes to the rank index.
+     */
+    private BalanceRankIndex syncRankIndex() {
+        BalanceRankIndex rank = rankIndex;
+        rankSyncLock.lock();
+        try {
+            for (Iterator<UUID> it = pendingRankUpdates.iterator(); it.hasNext(); ) {
+                UUID uuid = it.next();
+                it.remove();
+                int slot = slotOf(uuid);
+                if (slot >= 0) {
+                    rank.update(uuid, readBalance(slot));
+                } else {
+                    rank.remove(uuid);
+                }
+            }
+        } finally {
+            rankSyncLock.unlock();
+        }
+        return rank;
+    }
+
+    private static int recordOffset(int slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private static int balanceOffset(int slot) {
+        return recordOffset(slot) + BALANCE_OFFSET;
+    }
+}
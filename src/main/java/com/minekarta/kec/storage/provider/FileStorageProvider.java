@@ -1,6 +1,7 @@
 package com.minekarta.kec.storage.provider;
 
 import com.minekarta.kec.KartaEmeraldCurrencyPlugin;
+import com.minekarta.kec.api.BalanceMutation;
 import org.bukkit.Bukkit;
 import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.NotNull;
@@ -10,33 +11,186 @@ import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
 import org.yaml.snakeyaml.representer.Representer;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
+import java.util.function.ObjLongConsumer;
 import java.util.logging.Level;
 
 public class FileStorageProvider implements StorageProvider {
 
+    /**
+     * Which accounts the provider keeps in memory.
+     */
+    public enum CacheMode {
+        /** All accounts are loaded at startup and stay in memory. */
+        FULL,
+        /** Accounts are loaded on first use and evicted once they are saved and their player is offline. */
+        LAZY
+    }
+
+    /**
+     * How player files are arranged in the data folder.
+     */
+    public enum Layout {
+        /** Every file directly in the data folder. */
+        FLAT,
+        /** Files spread over two levels of sub-folders named after the first four hex digits of the UUID, e.g. data/ab/cd/. */
+        SHARDED
+    }
+
+    /**
+     * A balance cell, with the bookkeeping needed to evict it again in LAZY mode.
+     */
+    private static final class Account extends AtomicLong {
+        // The balance held by the player's file, or NOT_SAVED if it hasn't been written yet
+        volatile long savedBalance;
+        volatile long lastAccess;
+
+        Account(long balance, long savedBalance) {
+            super(balance);
+            this.savedBalance = savedBalance;
+        }
+    }
+
+    // Neither is ever a real balance
+    private static final long EVICTED = Long.MIN_VALUE;
+    private static final long NOT_SAVED = Long.MIN_VALUE;
+
     private final KartaEmeraldCurrencyPlugin plugin;
     private final Path dataFolderPath;
-    private final Yaml yaml;
-    private final Map<UUID, PlayerData> cache = new ConcurrentHashMap<>();
+    // Balances are plain atomic cells so that mutations are lock-free and allocation-free
+    private final Map<UUID, Account> balances = new ConcurrentHashMap<>();
     private final Map<UUID, Boolean> dirtyPlayers = new ConcurrentHashMap<>();
+    // Accounts deleted in memory whose file still has to be removed
+    private final Set<UUID> deletedPlayers = ConcurrentHashMap.newKeySet();
+    // Accounts whose rank index entry is stale; applied lazily so mutations never wait on the index lock
+    private final Set<UUID> pendingRankUpdates = ConcurrentHashMap.newKeySet();
+    private BalanceRankIndex rankIndex = new BalanceRankIndex();
+    // Serializes draining the pending updates, so an older balance can never overwrite a newer one in the index
+    private final ReentrantLock rankSyncLock = new ReentrantLock();
+    // Null when the journal is disabled
+    private final BalanceJournal journal;
+    private final long journalMaxBytes;
+    private final boolean fsyncFiles;
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+    private final long autoSaveIntervalTicks;
+    private final int dirtyThreshold;
+    private final int maxFilesPerSecond;
+    private volatile long lastSaveMillis;
+    private volatile int lastSaveFileCount;
+    private final ThreadLocal<Yaml> parsers = ThreadLocal.withInitial(FileStorageProvider::createYaml);
+    // Completed once every player file is loaded; while loading, missing players are read on demand
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private volatile boolean loading;
+    // Set on shutdown: stops loading and lifts the write rate limit of a save in progress
+    private volatile boolean closing;
+    // Accounts deleted before their file was loaded, which the loader must not bring back
+    private final Set<UUID> deletedWhileLoading = ConcurrentHashMap.newKeySet();
+    // Serializes saves, along with the rank file updates and evictions that follow them
+    private final ReentrantLock saveLock = new ReentrantLock();
+
+    private final CacheMode cacheMode;
+    private final Layout layout;
+    private final int maxCachedPlayers;
+    private final Set<UUID> onlinePlayers = ConcurrentHashMap.newKeySet();
+    // LAZY mode: the leaderboard as of the last save, kept on disk. Null until it is opened
+    private volatile BalanceIndexFile rankFile;
+    // Saved changes the rank file doesn't have yet; guarded by saveLock
+    private final Map<UUID, OptionalLong> unmergedRankChanges = new HashMap<>();
 
     private BukkitTask autoSaveTask;
 
+    private static final int LOAD_BATCH_SIZE = 256;
+    private static final long LOAD_PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final String RANK_FILE_NAME = "leaderboard.idx";
+    // Records the layout of the data folder, which is FLAT if it's missing
+    private static final String LAYOUT_FILE_NAME = ".layout";
+
     public FileStorageProvider(KartaEmeraldCurrencyPlugin plugin) {
         this.plugin = plugin;
         this.dataFolderPath = plugin.getDataFolder().toPath().resolve("data");
 
-        // Configure SnakeYAML
+        if (plugin.getConfig().getBoolean("storage.yaml.journal.enabled", true)) {
+            this.journal = new BalanceJournal(plugin.getDataFolder().toPath().resolve("journal"), plugin.getLogger(),
+                    plugin.getConfig().getBoolean("storage.yaml.journal.fsync", false), this::currentBalance);
+            this.journalMaxBytes = plugin.getConfig().getLong("storage.yaml.journal.max-size-mb", 64) * 1024 * 1024;
+        } else {
+            this.journal = null;
+            this.journalMaxBytes = 0;
+        }
+
+        String cacheModeStr = plugin.getConfig().getString("storage.yaml.cache-mode", "FULL").toUpperCase(Locale.ROOT);
+        CacheMode mode;
+        try {
+            mode = CacheMode.valueOf(cacheModeStr);
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("Invalid YAML cache mode '" + cacheModeStr + "' in config.yml. Defaulting to FULL.");
+            mode = CacheMode.FULL;
+        }
+        this.cacheMode = mode;
+        this.maxCachedPlayers = Math.max(0, plugin.getConfig().getInt("storage.yaml.max-cached-players", 10000));
+
+        String layoutStr = plugin.getConfig().getString("storage.yaml.layout", "FLAT").toUpperCase(Locale.ROOT);
+        Layout fileLayout;
+        try {
+            fileLayout = Layout.valueOf(layoutStr);
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("Invalid YAML file layout '" + layoutStr + "' in config.yml. Defaulting to FLAT.");
+            fileLayout = Layout.FLAT;
+        }
+        this.layout = fileLayout;
+
+        this.autoSaveIntervalTicks = Math.max(1L, plugin.getConfig().getLong("storage.yaml.autosave.interval-seconds", 300)) * 20L;
+        this.dirtyThreshold = Math.max(0, plugin.getConfig().getInt("storage.yaml.autosave.dirty-threshold", 5000));
+        this.maxFilesPerSecond = Math.max(0, plugin.getConfig().getInt("storage.yaml.autosave.max-files-per-second", 0));
+        this.fsyncFiles = plugin.getConfig().getBoolean("storage.yaml.autosave.fsync", false);
+    }
+
+    /**
+     * Creates a SnakeYAML instance that reads player files {@link PlayerDataCodec} can't parse on its own.
+     * Instances are not thread-safe.
+     */
+    static Yaml createYaml() {
         DumperOptions options = new DumperOptions();
         options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
         options.setPrettyFlow(true);
@@ -46,123 +200,952 @@ public class FileStorageProvider implements StorageProvider {
         LoaderOptions loaderOptions = new LoaderOptions();
         loaderOptions.setTagInspector(tag -> tag.getClassName().equals(PlayerData.class.getName()));
 
-        this.yaml = new Yaml(new Constructor(PlayerData.class, loaderOptions), representer, options);
+        return new Yaml(new Constructor(PlayerData.class, loaderOptions), representer, options);
     }
 
     @Override
     public void initialize() {
         try {
             Files.createDirectories(dataFolderPath);
-            loadAllPlayerData();
-            startAutoSave();
         } catch (IOException e) {
             plugin.getLogger().log(Level.SEVERE, "Failed to create data directory", e);
         }
+        try {
+            migrateLayout();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to move player files to the " + layout + " layout", e);
+        }
+        loading = cacheMode == CacheMode.FULL;
+        if (journal != null) {
+            // Journaled balances are newer than the files, so they are applied first and the loader skips them
+            try {
+                recoverFromJournal();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to open the balance journal", e);
+            }
+        }
+        if (plugin.getConfig().getBoolean("storage.yaml.background-load", true)) {
+            if (cacheMode == CacheMode.FULL) {
+                plugin.getLogger().info("Loading player data in the background; players are loaded on demand until it completes.");
+            }
+            Thread.ofPlatform().daemon().name("KartaEmerald-Loader").start(this::completeLoading);
+        } else {
+            try {
+                loadData();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to load player data", e);
+            }
+            finishLoading();
+        }
+        startAutoSave();
+    }
+
+    private void loadData() throws IOException {
+        if (cacheMode == CacheMode.FULL) {
+            // The LAZY leaderboard index isn't kept up to date in this mode, so it mustn't be reopened later
+            Files.deleteIfExists(plugin.getDataFolder().toPath().resolve(RANK_FILE_NAME));
+            loadAllPlayerData(this::putLoaded);
+        } else {
+            openRankFile();
+        }
+    }
+
+    private void completeLoading() {
+        try {
+            loadData();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to load player data; leaderboards stay unavailable until the next restart", e);
+            ready.completeExceptionally(e);
+            return;
+        }
+        if (closing) {
+            ready.cancel(false);
+            return;
+        }
+        finishLoading();
+    }
+
+    private void finishLoading() {
+        if (cacheMode == CacheMode.FULL) {
+            buildRankIndex();
+        }
+        loading = false;
+        deletedWhileLoading.clear();
+        ready.complete(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> readiness() {
+        return ready;
     }
 
     @Override
     public void shutdown() {
+        closing = true;
         if (autoSaveTask != null) {
             autoSaveTask.cancel();
         }
         saveAllDirtyData(false); // Save synchronously on shutdown
+        if (journal != null) {
+            journal.close();
+        }
+        BalanceIndexFile file = rankFile;
+        if (file != null) {
+            saveLock.lock();
+            try {
+                // If changes are still missing from it, it is rebuilt on the next start
+                file.close(unmergedRankChanges.isEmpty());
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to close the leaderboard index", e);
+            } finally {
+                saveLock.unlock();
+            }
+        }
     }
 
     @Override
     public Optional<PlayerData> getPlayerData(@NotNull UUID uuid) {
-        return Optional.ofNullable(cache.get(uuid));
+        OptionalLong balance = balanceOf(uuid);
+        return balance.isPresent() ? Optional.of(new PlayerData(balance.getAsLong())) : Optional.empty();
+    }
+
+    @Override
+    public Map<UUID, Long> getBalances(@NotNull Collection<UUID> uuids) {
+        Map<UUID, Long> result = new HashMap<>();
+        for (UUID uuid : uuids) {
+            balanceOf(uuid).ifPresent(balance -> result.put(uuid, balance));
+        }
+        return result;
     }
 
     @Override
     public void savePlayerData(@NotNull UUID uuid, @NotNull PlayerData data) {
-        cache.put(uuid, data);
-        dirtyPlayers.put(uuid, true);
+        long balance = data.getBalance();
+        updateBalance(uuid, true, current -> balance);
+        markChanged(uuid);
+    }
+
+    @Override
+    public void savePlayerDataBatch(@NotNull Map<UUID, PlayerData> data) {
+        data.forEach((uuid, playerData) -> {
+            long balance = playerData.getBalance();
+            updateBalance(uuid, true, current -> balance);
+        });
+        // One journal commit and one dirty threshold check for the whole batch, e.g. during a migration
+        markChanged(data.keySet());
+    }
+
+    @Override
+    public boolean supportsAtomicDeltas() {
+        return true;
+    }
+
+    @Override
+    public long addBalance(@NotNull UUID uuid, long amount) {
+        long newBalance = updateBalance(uuid, true, current -> current + amount) + amount;
+        markChanged(uuid);
+        return newBalance;
+    }
+
+    @Override
+    public long removeBalance(@NotNull UUID uuid, long amount) {
+        long newBalance = Math.max(0, updateBalance(uuid, true, current -> Math.max(0, current - amount)) - amount);
+        markChanged(uuid);
+        return newBalance;
+    }
+
+    @Override
+    public OptionalLong withdrawBalance(@NotNull UUID uuid, long amount) {
+        long previous = updateBalance(uuid, false, current -> current < amount ? current : current - amount);
+        if (previous == EVICTED) {
+            return amount > 0 ? OptionalLong.empty() : OptionalLong.of(addBalance(uuid, 0));
+        }
+        if (previous < amount) {
+            return OptionalLong.empty();
+        }
+        markChanged(uuid);
+        return OptionalLong.of(previous - amount);
+    }
+
+    @Override
+    public boolean transfer(@NotNull UUID from, @NotNull UUID to, long amount, long fee) {
+        long total = amount + fee;
+        // Only a transfer of nothing may create the sender, as the default implementation does
+        long previous = updateBalance(from, total <= 0, current -> current < total ? current : current - total);
+        if (previous == EVICTED || previous < total) {
+            return false;
+        }
+        updateBalance(to, true, current -> current + amount);
+        // One journal batch, so a crash can't keep the debit without the credit
+        markChanged(List.of(from, to));
+        return true;
+    }
+
+    @Override
+    public List<OptionalLong> applyMutations(@NotNull List<BalanceMutation> mutations) {
+        MutationBatch batch = new MutationBatch(mutations);
+        List<UUID> changed = new ArrayList<>();
+        for (UUID uuid : batch.accounts()) {
+            long previous = updateBalance(uuid, batch.createsAccount(uuid), current -> batch.apply(uuid, current));
+            if (previous == EVICTED) {
+                batch.apply(uuid, 0L); // Nothing to remove from; only records the results
+                continue;
+            }
+            changed.add(uuid);
+        }
+        markChanged(changed);
+        return batch.results();
     }
 
     @Override
     public void deletePlayerData(@NotNull UUID uuid) {
-        cache.remove(uuid);
+        balances.compute(uuid, (key, account) -> {
+            deletedPlayers.add(key);
+            if (loading) {
+                deletedWhileLoading.add(key);
+            }
+            return null;
+        });
         // Also mark as dirty to ensure file deletion
-        dirtyPlayers.put(uuid, true);
+        markChanged(uuid);
     }
 
     @Override
-    public Map<UUID, PlayerData> getAllPlayerData() {
-        return new ConcurrentHashMap<>(cache);
+    public void forEachAccount(@NotNull ObjLongConsumer<UUID> action) {
+        ready.join();
+        // In LAZY mode, only the accounts in memory are remembered, so memory stays bounded by the cache size
+        Set<UUID> reported = cacheMode == CacheMode.LAZY ? new HashSet<>() : null;
+        balances.forEach((uuid, account) -> {
+            long balance = account.get();
+            if (balance != EVICTED) {
+                action.accept(uuid, balance);
+                if (reported != null) {
+                    reported.add(uuid);
+                }
+            }
+        });
+        if (cacheMode == CacheMode.LAZY) {
+            // The rank file holds every account as of the last save; accounts in memory were reported above
+            try {
+                rankFile.forEach((uuid, balance) -> {
+                    if (!reported.contains(uuid) && !deletedPlayers.contains(uuid)) {
+                        action.accept(uuid, balance);
+                    }
+                });
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read the leaderboard index", e);
+            }
+        }
     }
 
-    private void loadAllPlayerData() {
-        File[] playerFiles = dataFolderPath.toFile().listFiles((dir, name) -> name.endsWith(".yml"));
-        if (playerFiles == null) return;
+    @Override
+    public Map<UUID, Long> getTopBalances(int limit, int offset) {
+        ready.join();
+        if (cacheMode == CacheMode.LAZY) {
+            try {
+                return rankFile.getRange(limit, offset);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to read the leaderboard index", e);
+                return Collections.emptyMap();
+            }
+        }
+        return syncRankIndex().getRange(limit, offset);
+    }
 
-        for (File file : playerFiles) {
-            String fileName = file.getName();
+    @Override
+    public int getRank(@NotNull UUID uuid) {
+        ready.join();
+        if (cacheMode == CacheMode.LAZY) {
+            // Rank by the balance the rank file holds for the account, so it isn't counted against itself
+            Account account = lookup(uuid);
+            long saved = account != null ? account.savedBalance : NOT_SAVED;
+            OptionalLong balance = saved != NOT_SAVED ? OptionalLong.of(saved) : balanceOf(uuid);
+            if (balance.isEmpty()) {
+                return 0;
+            }
+            try {
+                return rankFile.getRank(uuid, balance.getAsLong());
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to read the leaderboard index", e);
+                return 0;
+            }
+        }
+        return syncRankIndex().getRank(uuid);
+    }
+
+    @Override
+    public int getAccountCount() {
+        ready.join();
+        return cacheMode == CacheMode.LAZY ? rankFile.size() : balances.size();
+    }
+
+    @Override
+    public void handlePlayerJoin(@NotNull UUID uuid) {
+        if (cacheMode != CacheMode.LAZY) {
+            return;
+        }
+        onlinePlayers.add(uuid);
+        if (!balances.containsKey(uuid) && plugin.isEnabled()) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> lookup(uuid));
+        }
+    }
+
+    @Override
+    public void handlePlayerQuit(@NotNull UUID uuid) {
+        onlinePlayers.remove(uuid);
+    }
+
+    private Account cellOf(UUID uuid) {
+        Account account = lookup(uuid);
+        return account != null ? account : balances.computeIfAbsent(uuid, k -> new Account(0, NOT_SAVED));
+    }
+
+    /**
+     * Gets the balance cell of an account, reading its file first if it isn't in memory yet.
+     */
+    private Account lookup(UUID uuid) {
+        Account account = balances.get(uuid);
+        if (account == null && (loading || cacheMode == CacheMode.LAZY) && !deletedPlayers.contains(uuid)) {
+            OptionalLong stored = readPlayerFile(uuid);
+            if (stored.isPresent()) {
+                putLoaded(uuid, stored.getAsLong());
+            }
+            account = balances.get(uuid);
+        }
+        if (account != null && cacheMode == CacheMode.LAZY) {
+            account.lastAccess = System.nanoTime();
+        }
+        return account;
+    }
+
+    /**
+     * Gets the balance of an account, or empty if it doesn't exist.
+     */
+    private OptionalLong balanceOf(UUID uuid) {
+        while (true) {
+            Account account = lookup(uuid);
+            if (account == null) {
+                return OptionalLong.empty();
+            }
+            long balance = account.get();
+            if (balance != EVICTED) {
+                return OptionalLong.of(balance);
+            }
+            Thread.onSpinWait(); // Being evicted; the next lookup reads it back from its file
+        }
+    }
+
+    /**
+     * Applies {@code update} to the balance of an account in a compare-and-set loop, which also
+     * retries on a fresh cell if the account is evicted meanwhile. The function may run several times.
+     *
+     * @param create Whether to create the account if it doesn't exist.
+     * @return The balance before the update, or EVICTED if the account doesn't exist and isn't created.
+     */
+    private long updateBalance(UUID uuid, boolean create, LongUnaryOperator update) {
+        Account account = create ? cellOf(uuid) : lookup(uuid);
+        while (account != null) {
+            long current = account.get();
+            if (current == EVICTED) {
+                Thread.onSpinWait();
+                account = create ? cellOf(uuid) : lookup(uuid);
+            } else if (account.compareAndSet(current, update.applyAsLong(current))) {
+                return current;
+            }
+        }
+        return EVICTED;
+    }
+
+    private OptionalLong readPlayerFile(UUID uuid) {
+        Path file = playerFile(uuid);
+        if (!Files.exists(file)) {
+            return OptionalLong.empty();
+        }
+        try {
+            PlayerData data = PlayerDataCodec.decode(Files.readAllBytes(file), parsers::get);
+            return data != null ? OptionalLong.of(data.getBalance()) : OptionalLong.empty();
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to load player data for " + uuid, e);
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Adds a balance read from disk, unless the account was changed or deleted in memory since.
+     * Both this and {@link #deletePlayerData} run under the map's lock for the key, so they can't interleave.
+     */
+    private void putLoaded(UUID uuid, long balance) {
+        balances.compute(uuid, (k, existing) -> existing != null || !(loading || cacheMode == CacheMode.LAZY)
+                || deletedPlayers.contains(k) || deletedWhileLoading.contains(k)
+                ? existing : new Account(balance, balance));
+    }
+
+    private void markChanged(UUID uuid) {
+        markChanged(List.of(uuid));
+    }
+
+    /**
+     * Marks accounts dirty and journals them together, so a change spanning several accounts is
+     * written in one group commit rather than one commit per account.
+     */
+    private void markChanged(Collection<UUID> uuids) {
+        for (UUID uuid : uuids) {
+            dirtyPlayers.put(uuid, Boolean.TRUE);
+            if (cacheMode == CacheMode.FULL) {
+                pendingRankUpdates.add(uuid);
+            }
+        }
+        if (journal != null) {
+            // Dirty first: a checkpoint relies on every journaled change also being picked up by the snapshot
+            try {
+                journal.append(uuids);
+            } catch (UncheckedIOException e) {
+                scheduleSave(); // The changes are only safe once they are in the player files
+                throw e;
+            }
+            if (journal.getSegmentSize() >= journalMaxBytes) {
+                scheduleSave();
+            }
+        }
+        if (dirtyThreshold > 0 && dirtyPlayers.size() >= dirtyThreshold) {
+            scheduleSave();
+        }
+    }
+
+    private OptionalLong currentBalance(UUID uuid) {
+        while (true) {
+            Account account = balances.get(uuid);
+            if (account == null) {
+                // In LAZY mode, an account that isn't in memory and wasn't deleted is unchanged since its last save
+                return cacheMode == CacheMode.LAZY && !deletedPlayers.contains(uuid) ? readPlayerFile(uuid) : OptionalLong.empty();
+            }
+            long balance = account.get();
+            if (balance != EVICTED) {
+                return OptionalLong.of(balance);
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Applies all pending balance changes to the rank index.
+     */
+    private BalanceRankIndex syncRankIndex() {
+        BalanceRankIndex index = rankIndex;
+        rankSyncLock.lock();
+        try {
+            for (Iterator<UUID> it = pendingRankUpdates.iterator(); it.hasNext(); ) {
+                UUID uuid = it.next();
+                it.remove();
+                AtomicLong cell = balances.get(uuid);
+                if (cell != null) {
+                    index.update(uuid, cell.get());
+                } else {
+                    index.remove(uuid);
+                }
+            }
+        } finally {
+            rankSyncLock.unlock();
+        }
+        return index;
+    }
+
+    /**
+     * Reads all player files, parsing them in parallel, and passes each balance to {@code sink}.
+     * The folders are streamed rather than listed up front, and each loader thread has its own fallback Yaml
+     * instance, as SnakeYAML isn't thread-safe. In FULL mode, accounts that are already in memory, because they
+     * were loaded on demand or changed, are skipped.
+     */
+    private void loadAllPlayerData(ObjLongConsumer<UUID> sink) throws IOException {
+        int threads = plugin.getConfig().getInt("storage.yaml.load-threads", 0);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService loader = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "KartaEmerald-Loader-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        LongAdder bytesRead = new LongAdder();
+        AtomicInteger filesRead = new AtomicInteger();
+        AtomicLong nextProgressLog = new AtomicLong(System.nanoTime() + LOAD_PROGRESS_INTERVAL_NANOS);
+        long startTime = System.nanoTime();
+
+        List<Future<?>> batches = new ArrayList<>();
+        try {
+            AtomicReference<List<Path>> batch = new AtomicReference<>(new ArrayList<>(LOAD_BATCH_SIZE));
+            forEachPlayerFile(dataFolderPath, file -> {
+                if (closing) {
+                    return;
+                }
+                batch.get().add(file);
+                if (batch.get().size() == LOAD_BATCH_SIZE) {
+                    List<Path> toLoad = batch.getAndSet(new ArrayList<>(LOAD_BATCH_SIZE));
+                    batches.add(loader.submit(() -> loadFiles(toLoad, sink, bytesRead, filesRead, nextProgressLog)));
+                }
+            });
+            if (!batch.get().isEmpty()) {
+                List<Path> toLoad = batch.get();
+                batches.add(loader.submit(() -> loadFiles(toLoad, sink, bytesRead, filesRead, nextProgressLog)));
+            }
+            for (Future<?> future : batches) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading player data", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to load player data", e.getCause());
+        } finally {
+            loader.shutdownNow();
+        }
+
+        long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+        plugin.getLogger().info(String.format(Locale.ROOT, "Loaded data for %d players from files in %d ms (%d files/s, %.1f MB/s, %d threads).",
+                filesRead.get(), elapsedMillis, filesRead.get() * 1000L / elapsedMillis,
+                bytesRead.sum() / 1024.0 / 1024.0 / (elapsedMillis / 1000.0), threads));
+    }
+
+    private void loadFiles(List<Path> files, ObjLongConsumer<UUID> sink, LongAdder bytesRead, AtomicInteger filesRead, AtomicLong nextProgressLog) {
+        for (Path file : files) {
+            if (closing) {
+                return;
+            }
+            String fileName = file.getFileName().toString();
             try {
                 UUID uuid = UUID.fromString(fileName.substring(0, fileName.length() - 4));
-                try (FileReader reader = new FileReader(file)) {
-                    PlayerData data = yaml.load(reader);
-                    if (data != null) {
-                        cache.put(uuid, data);
-                    }
+                if (cacheMode == CacheMode.FULL && balances.containsKey(uuid)) {
+                    continue;
+                }
+                byte[] content = Files.readAllBytes(file);
+                bytesRead.add(content.length);
+                PlayerData data = PlayerDataCodec.decode(content, parsers::get);
+                if (data != null) {
+                    sink.accept(uuid, data.getBalance());
                 }
             } catch (Exception e) {
                 plugin.getLogger().log(Level.WARNING, "Failed to load player data from " + fileName, e);
             }
         }
-        plugin.getLogger().info("Loaded data for " + cache.size() + " players from files.");
+
+        int total = filesRead.addAndGet(files.size());
+        long now = System.nanoTime();
+        long next = nextProgressLog.get();
+        if (now - next >= 0 && nextProgressLog.compareAndSet(next, now + LOAD_PROGRESS_INTERVAL_NANOS)) {
+            plugin.getLogger().info("Loading player data... " + total + " files read so far.");
+        }
+    }
+
+    private Path playerFile(UUID uuid) {
+        return playerFile(dataFolderPath, layout, uuid + ".yml");
+    }
+
+    private static Path playerFile(Path dataFolder, Layout layout, String fileName) {
+        if (layout == Layout.SHARDED) {
+            return dataFolder.resolve(fileName.substring(0, 2)).resolve(fileName.substring(2, 4)).resolve(fileName);
+        }
+        return dataFolder.resolve(fileName);
+    }
+
+    /**
+     * Performs an action for every player file in the data folder, in either layout.
+     * Each folder is streamed rather than listed up front.
+     */
+    static void forEachPlayerFile(@NotNull Path dataFolder, @NotNull Consumer<Path> action) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dataFolder)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (name.endsWith(".yml")) {
+                    action.accept(entry);
+                } else if (isShardName(name) && Files.isDirectory(entry)) {
+                    try (DirectoryStream<Path> shards = Files.newDirectoryStream(entry, shard -> isShardName(shard.getFileName().toString()) && Files.isDirectory(shard))) {
+                        for (Path shard : shards) {
+                            try (DirectoryStream<Path> files = Files.newDirectoryStream(shard, "*.yml")) {
+                                files.forEach(action);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isShardName(String name) {
+        return name.length() == 2 && Character.digit(name.charAt(0), 16) >= 0 && Character.digit(name.charAt(1), 16) >= 0;
+    }
+
+    /**
+     * Moves the player files into the configured layout if the data folder was last used with another one.
+     * Each file is moved atomically, so an interrupted migration simply continues on the next start.
+     */
+    private void migrateLayout() throws IOException {
+        Path layoutFile = dataFolderPath.resolve(LAYOUT_FILE_NAME);
+        String recorded = Files.exists(layoutFile) ? Files.readString(layoutFile, StandardCharsets.US_ASCII).trim() : Layout.FLAT.name();
+        if (recorded.equals(layout.name())) {
+            return;
+        }
+
+        plugin.getLogger().info("Moving player files to the " + layout + " layout...");
+        long startTime = System.nanoTime();
+        AtomicInteger moved = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        forEachPlayerFile(dataFolderPath, file -> {
+            Path target = playerFile(dataFolderPath, layout, file.getFileName().toString());
+            if (file.equals(target)) {
+                return;
+            }
+            try {
+                if (Files.exists(target)) {
+                    plugin.getLogger().warning("Not moving " + file + " as " + target + " already exists.");
+                    failed.incrementAndGet();
+                    return;
+                }
+                Files.createDirectories(target.getParent());
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+                moved.incrementAndGet();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Failed to move " + file, e);
+                failed.incrementAndGet();
+            }
+        });
+        if (failed.get() > 0) {
+            // Files left behind would shadow or be shadowed by newer copies, so the provider doesn't start
+            throw new IOException(failed.get() + " player files could not be moved");
+        }
+        if (layout == Layout.FLAT) {
+            removeEmptyShards();
+        }
+        writeAtomically(layoutFile, layout.name().getBytes(StandardCharsets.US_ASCII));
+        plugin.getLogger().info("Moved " + moved.get() + " player files in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms.");
+    }
+
+    private void removeEmptyShards() throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dataFolderPath, entry -> isShardName(entry.getFileName().toString()) && Files.isDirectory(entry))) {
+            for (Path entry : entries) {
+                try (DirectoryStream<Path> shards = Files.newDirectoryStream(entry)) {
+                    for (Path shard : shards) {
+                        deleteIfEmpty(shard);
+                    }
+                }
+                deleteIfEmpty(entry);
+            }
+        }
+    }
+
+    private static void deleteIfEmpty(Path directory) throws IOException {
+        try {
+            Files.delete(directory);
+        } catch (DirectoryNotEmptyException e) {
+            // Holds files that aren't player files
+        }
+    }
+
+    /**
+     * Opens the leaderboard index of LAZY mode. If the server didn't stop cleanly last time, the index
+     * may be behind the player files and is rebuilt by reading all of them.
+     */
+    private void openRankFile() throws IOException {
+        Path path = plugin.getDataFolder().toPath().resolve(RANK_FILE_NAME);
+        BalanceIndexFile file = BalanceIndexFile.openIfClean(path);
+        if (file == null) {
+            plugin.getLogger().info("Building the leaderboard index from the player files...");
+            Map<UUID, Long> stored = new ConcurrentHashMap<>();
+            loadAllPlayerData(stored::put);
+            if (closing) {
+                return;
+            }
+            file = BalanceIndexFile.create(path, stored);
+        }
+        saveLock.lock();
+        try {
+            // Anything saved meanwhile may or may not have been picked up by the scan
+            this.rankFile = file;
+            mergeRankChanges(Map.of());
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    /**
+     * Replays changes that were journaled but not yet saved to the player files, e.g. after a crash,
+     * and writes them out right away so the replayed segments can be discarded.
+     */
+    private void recoverFromJournal() throws IOException {
+        List<BalanceJournal.Entry> entries = journal.open();
+        if (entries.isEmpty()) {
+            return;
+        }
+        for (BalanceJournal.Entry entry : entries) {
+            if (entry.balance().isPresent()) {
+                deletedPlayers.remove(entry.uuid());
+                balances.computeIfAbsent(entry.uuid(), k -> new Account(0, NOT_SAVED)).set(entry.balance().getAsLong());
+            } else {
+                deletePlayerDataWithoutJournal(entry.uuid());
+            }
+            dirtyPlayers.put(entry.uuid(), Boolean.TRUE);
+        }
+        plugin.getLogger().info("Recovered " + entries.size() + " balance changes from the journal.");
+        journal.checkpoint(() -> saveDirtyData(false));
+    }
+
+    private void deletePlayerDataWithoutJournal(UUID uuid) {
+        balances.remove(uuid);
+        deletedPlayers.add(uuid);
+        if (loading) {
+            deletedWhileLoading.add(uuid);
+        }
+    }
+
+    private void buildRankIndex() {
+        Map<UUID, Long> loaded = new HashMap<>();
+        balances.forEach((uuid, cell) -> loaded.put(uuid, cell.get()));
+        this.rankIndex = BalanceRankIndex.build(loaded);
     }
 
     private void startAutoSave() {
-        // TODO: Make this configurable
-        long interval = 20L * 60 * 5; // 5 minutes
-        this.autoSaveTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> saveAllDirtyData(true), interval, interval);
+        this.autoSaveTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> saveAllDirtyData(true),
+                autoSaveIntervalTicks, autoSaveIntervalTicks);
     }
 
     private void saveAllDirtyData(boolean async) {
-        // Create a snapshot of dirty players to work on
-        Map<UUID, Boolean> snapshot = new ConcurrentHashMap<>(dirtyPlayers);
-        dirtyPlayers.clear();
+        if (async) {
+            scheduleSave();
+        } else {
+            save(false);
+        }
+    }
 
-        if (snapshot.isEmpty()) {
-            return;
+    private boolean save(boolean rateLimited) {
+        // With a journal, every save is a checkpoint that lets the journal drop what the files now cover
+        if (journal != null) {
+            return journal.checkpoint(() -> saveDirtyData(rateLimited));
+        }
+        return saveDirtyData(rateLimited);
+    }
+
+    /**
+     * Starts an asynchronous save unless one is already queued or running, e.g. when many players
+     * are dirty or the journal is full.
+     */
+    private void scheduleSave() {
+        if (!plugin.isEnabled()) {
+            return; // The shutdown save will pick these players up
         }
+        if (saveScheduled.compareAndSet(false, true)) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+                boolean complete;
+                try {
+                    complete = save(true);
+                } finally {
+                    // Only cleared now: a rate-limited save can take minutes, and requests meanwhile would each park a thread on saveLock
+                    saveScheduled.set(false);
+                }
+                // Requests made during the save were dropped, so make one more pass if they are still due
+                if (complete && isSaveDue()) {
+                    scheduleSave();
+                }
+            });
+        }
+    }
+
+    private boolean isSaveDue() {
+        return (dirtyThreshold > 0 && dirtyPlayers.size() >= dirtyThreshold)
+                || (journal != null && journal.getSegmentSize() >= journalMaxBytes);
+    }
+
+    /**
+     * Gets the number of players whose changes haven't been written to their file yet.
+     * @return The number of dirty players.
+     */
+    public int getSaveBacklog() {
+        return dirtyPlayers.size();
+    }
+
+    /**
+     * Gets how long the last save that wrote any files took.
+     * @return The duration in milliseconds.
+     */
+    public long getLastSaveMillis() {
+        return lastSaveMillis;
+    }
+
+    /**
+     * Gets how many files the last save that wrote any files wrote or deleted.
+     * @return The number of files.
+     */
+    public int getLastSaveFileCount() {
+        return lastSaveFileCount;
+    }
 
-        Runnable saveTask = () -> {
+    /**
+     * Writes the files of all dirty players. In LAZY mode, the saved changes then go into the
+     * rank file and idle accounts beyond the cache limit are evicted.
+     *
+     * @param rateLimited Whether to spread the writes out according to 'max-files-per-second'.
+     * @return true if every dirty player was saved, false if some are left for the next attempt.
+     */
+    private boolean saveDirtyData(boolean rateLimited) {
+        saveLock.lock();
+        try {
+            long startTime = System.nanoTime();
+            // Take the dirty players one by one so that changes made meanwhile are never lost
+            Set<UUID> snapshot = new HashSet<>();
+            for (UUID uuid : dirtyPlayers.keySet()) {
+                if (dirtyPlayers.remove(uuid) != null) {
+                    snapshot.add(uuid);
+                }
+            }
+
+            boolean complete = true;
             int savedCount = 0;
             int deletedCount = 0;
-            for (UUID uuid : snapshot.keySet()) {
-                Path playerFile = dataFolderPath.resolve(uuid + ".yml");
-                PlayerData data = cache.get(uuid);
+            Map<UUID, OptionalLong> saved = new HashMap<>();
+            long writeIntervalNanos = rateLimited && maxFilesPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / maxFilesPerSecond : 0;
+            long nextWrite = System.nanoTime();
+            for (UUID uuid : snapshot) {
+                if (writeIntervalNanos > 0 && !closing) {
+                    long wait = nextWrite - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    // A slow disk doesn't earn a burst afterwards
+                    nextWrite = Math.max(nextWrite, System.nanoTime()) + writeIntervalNanos;
+                }
+                Path playerFile = playerFile(uuid);
+                boolean deleted = deletedPlayers.remove(uuid);
+                Account account = balances.get(uuid);
 
-                if (data != null) { // Player has data, so save it
-                    try (FileWriter writer = new FileWriter(playerFile.toFile())) {
-                        yaml.dump(data, writer);
+                if (account != null) { // Player has data, so save it
+                    long balance = account.get();
+                    try {
+                        writeAtomically(playerFile, PlayerDataCodec.encode(balance));
+                        account.savedBalance = balance;
+                        saved.put(uuid, OptionalLong.of(balance));
                         savedCount++;
                     } catch (IOException e) {
                         plugin.getLogger().log(Level.SEVERE, "Failed to save data for " + uuid, e);
                         // Put it back in the dirty map to retry next time
                         dirtyPlayers.put(uuid, true);
+                        complete = false;
                     }
-                } else { // Player data was removed, so delete the file
+                } else if (deleted) { // Player data was removed, so delete the file
                     try {
                         Files.deleteIfExists(playerFile);
+                        saved.put(uuid, OptionalLong.empty());
                         deletedCount++;
                     } catch (IOException e) {
                         plugin.getLogger().log(Level.SEVERE, "Failed to delete data file for " + uuid, e);
                         // Put it back in the dirty map to retry next time
+                        deletedPlayers.add(uuid);
                         dirtyPlayers.put(uuid, true);
+                        complete = false;
                     }
                 }
+                // Otherwise the account was evicted right after being saved, and its file is current
             }
             if(savedCount > 0 || deletedCount > 0) {
-                plugin.getLogger().info("Auto-saved data for " + savedCount + " players and deleted data for " + deletedCount + " players.");
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+                lastSaveMillis = elapsedMillis;
+                lastSaveFileCount = savedCount + deletedCount;
+                plugin.getLogger().info("Auto-saved data for " + savedCount + " players and deleted data for " + deletedCount + " players in " + elapsedMillis + " ms.");
             }
-        };
+            if (cacheMode == CacheMode.LAZY && mergeRankChanges(saved)) {
+                evictIdleAccounts();
+            }
+            return complete;
+        } finally {
+            saveLock.unlock();
+        }
+    }
 
-        if (async) {
-            Bukkit.getScheduler().runTaskAsynchronously(plugin, saveTask);
-        } else {
-            saveTask.run();
+    /**
+     * Writes a file through a temporary file that is then renamed over it, so a crash mid-write
+     * never leaves a truncated player file behind.
+     */
+    private void writeAtomically(Path file, byte[] content) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            FileChannel opened;
+            try {
+                opened = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (NoSuchFileException e) {
+                // The first file of a shard creates its folder
+                Files.createDirectories(temp.getParent());
+                opened = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            try (FileChannel channel = opened) {
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (fsyncFiles) {
+                    channel.force(false);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Applies saved changes to the rank file, along with any that previously couldn't be applied.
+     * Must be called while holding the save lock.
+     *
+     * @return true if the rank file now covers every saved change.
+     */
+    private boolean mergeRankChanges(Map<UUID, OptionalLong> saved) {
+        unmergedRankChanges.putAll(saved);
+        BalanceIndexFile file = rankFile;
+        if (file == null) {
+            return false; // Still being built; merged once it is opened
+        }
+        try {
+            file.merge(unmergedRankChanges);
+            unmergedRankChanges.clear();
+            return true;
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to update the leaderboard index, will retry.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Evicts the least recently used accounts of offline players until at most 'max-cached-players'
+     * remain. Only accounts whose balance matches their file, and thus the rank file, are evicted.
+     * Must be called while holding the save lock.
+     */
+    private void evictIdleAccounts() {
+        int excess = balances.size() - maxCachedPlayers;
+        if (excess <= 0) {
+            return;
+        }
+        // The access time is read once: players keep using their accounts while the candidates are sorted
+        record Candidate(UUID uuid, Account account, long lastAccess) {
+        }
+        List<Candidate> candidates = new ArrayList<>();
+        balances.forEach((uuid, account) -> {
+            long saved = account.savedBalance;
+            if (saved != NOT_SAVED && account.get() == saved && !onlinePlayers.contains(uuid)) {
+                candidates.add(new Candidate(uuid, account, account.lastAccess));
+            }
+        });
+        candidates.sort(Comparator.comparingLong(Candidate::lastAccess));
+
+        int evicted = 0;
+        for (Candidate candidate : candidates) {
+            if (evicted == excess) {
+                break;
+            }
+            Account account = candidate.account();
+            // Fails if the balance changed since the check; a change racing with it retries on a reloaded cell
+            if (account.compareAndSet(account.savedBalance, EVICTED)) {
+                balances.remove(candidate.uuid(), account);
+                evicted++;
+            }
         }
     }
 }
@@ -0,0 +1,84 @@
+package com.minekarta.kec.storage.provider;
+
+import com.minekarta.kec.api.BalanceMutation;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A list of balance mutations grouped by account, so each account is read and written once
+ * no matter how many of the mutations touch it. Mutations of the same account are applied
+ * in the order they were given.
+ */
+final class MutationBatch {
+
+    private final List<BalanceMutation> mutations;
+    private final Map<UUID, List<Integer>> byAccount = new LinkedHashMap<>();
+    private final OptionalLong[] results;
+
+    MutationBatch(@NotNull List<BalanceMutation> mutations) {
+        this.mutations = mutations;
+        this.results = new OptionalLong[mutations.size()];
+        for (int i = 0; i < mutations.size(); i++) {
+            byAccount.computeIfAbsent(mutations.get(i).getPlayerId(), k -> new ArrayList<>()).add(i);
+        }
+    }
+
+    /**
+     * Gets the accounts touched by the batch, in order of first appearance.
+     */
+    Set<UUID> accounts() {
+        return byAccount.keySet();
+    }
+
+    /**
+     * Applies all mutations of one account to its starting balance and records their results.
+     * May be called again for the same account, e.g. when a compare-and-set has to be retried.
+     *
+     * @return The final balance of the account.
+     */
+    long apply(@NotNull UUID uuid, long balance) {
+        for (int index : byAccount.get(uuid)) {
+            BalanceMutation mutation = mutations.get(index);
+            switch (mutation.getType()) {
+                case DEPOSIT -> balance += mutation.getAmount();
+                case REMOVE -> balance = Math.max(0, balance - mutation.getAmount());
+                case WITHDRAW -> {
+                    if (balance < mutation.getAmount()) {
+                        results[index] = OptionalLong.empty();
+                        continue;
+                    }
+                    balance -= mutation.getAmount();
+                }
+            }
+            results[index] = OptionalLong.of(balance);
+        }
+        return balance;
+    }
+
+    /**
+     * Checks whether the batch creates the account if it doesn't exist yet.
+     */
+    boolean createsAccount(@NotNull UUID uuid) {
+        for (int index : byAccount.get(uuid)) {
+            if (mutations.get(index).getType() == BalanceMutation.Type.DEPOSIT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the result of every mutation, in the order they were given.
+     */
+    List<OptionalLong> results() {
+        return Arrays.asList(results.clone());
+    }
+}
@@ -0,0 +1,520 @@
+package com.minekarta.kec.storage.provider;
+
+import com.minekarta.kec.KartaEmeraldCurrencyPlugin;
+import com.minekarta.kec.api.BalanceMutation;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+import org.h2.mvstore.type.LongDataType;
+import org.h2.mvstore.type.ObjectDataType;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+import java.util.logging.Level;
+
+/**
+ * Stores accounts in an H2 MVStore file: a map from UUID to balance, plus a map of
+ * {@code (balance, uuid)} keys that keeps the accounts in leaderboard order. MVStore maps are
+ * counted B-trees, so leaderboard pages and ranks are found by position in logarithmic time.
+ * <p>
+ * Reads never lock. Writes update both maps under a single lock, and the store is only committed
+ * while holding it, so every version that reaches the file contains whole operations, including
+ * transfers and mutation batches.
+ */
+public class MvStoreStorageProvider implements StorageProvider {
+
+    // The database of the H2 storage older versions used
+    private static final String LEGACY_FILE_NAME = "kec-data.db.mv.db";
+
+    private final KartaEmeraldCurrencyPlugin plugin;
+    private final Path filePath;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private MVStore store;
+    private MVMap<UUID, Long> accounts;
+    private MVMap<RankKey, Boolean> ranking;
+    private BukkitTask commitTask;
+    private final boolean importLegacyData;
+
+    public MvStoreStorageProvider(KartaEmeraldCurrencyPlugin plugin) {
+        this(plugin, true);
+    }
+
+    /**
+     * Constructs a new MvStoreStorageProvider.
+     * @param plugin The plugin instance.
+     * @param importLegacyData Whether a new store is filled from the database of the old H2 storage.
+     */
+    public MvStoreStorageProvider(KartaEmeraldCurrencyPlugin plugin, boolean importLegacyData) {
+        this.plugin = plugin;
+        this.filePath = plugin.getDataFolder().toPath().resolve(plugin.getConfig().getString("storage.h2.file", "accounts.mv"));
+        this.importLegacyData = importLegacyData;
+    }
+
+    @Override
+    public void initialize() {
+        boolean created;
+        try {
+            Files.createDirectories(filePath.getParent());
+            created = !Files.exists(filePath);
+            String fileName = filePath.toAbsolutePath().toString();
+            this.store = new MVStore.Builder()
+                    .fileName(plugin.getConfig().getBoolean("storage.h2.memory-mapped", true) ? "nioMapped:" + fileName : fileName)
+                    .autoCommitDisabled() // Commits only happen in commit(), so they never split an operation
+                    .open();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to open " + filePath.getFileName(), e);
+        }
+        this.accounts = store.openMap("accounts", new MVMap.Builder<UUID, Long>()
+                .keyType(UuidType.INSTANCE)
+                .valueType(LongDataType.INSTANCE));
+        this.ranking = store.openMap("ranking", new MVMap.Builder<RankKey, Boolean>()
+                .keyType(RankKeyType.INSTANCE)
+                .valueType(new ObjectDataType()));
+
+        Path legacyFile = plugin.getDataFolder().toPath().resolve(LEGACY_FILE_NAME);
+        if (created && importLegacyData && Files.exists(legacyFile)) {
+            importLegacyDatabase(legacyFile);
+        }
+        plugin.getLogger().info("Loaded " + accounts.sizeAsLong() + " accounts from " + filePath.getFileName() + ".");
+
+        long interval = Math.max(1L, plugin.getConfig().getLong("storage.h2.commit-interval-seconds", 1)) * 20L;
+        this.commitTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::commit, interval, interval);
+    }
+
+    @Override
+    public void shutdown() {
+        if (commitTask != null) {
+            commitTask.cancel();
+        }
+        writeLock.lock();
+        try {
+            store.close(); // Commits what is left
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to close " + filePath.getFileName(), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void commit() {
+        writeLock.lock();
+        try {
+            store.commit();
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to commit changes to " + filePath.getFileName(), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Imports the accounts of the H2 database older versions used, the first time this storage is used.
+     * The table is found by its columns, as any table with a {@code uuid} and a {@code balance} column will do.
+     * Rows without a valid UUID are skipped. If the import fails partway, the new store is deleted and
+     * initialization fails, so the import starts over on the next start. The old database is left in place as a backup.
+     */
+    private void importLegacyDatabase(Path legacyFile) {
+        String fileName = legacyFile.toAbsolutePath().toString();
+        String url = "jdbc:h2:file:" + fileName.substring(0, fileName.length() - ".mv.db".length()) + ";IFEXISTS=TRUE";
+        Properties credentials = new Properties();
+        credentials.setProperty("user", "sa");
+        credentials.setProperty("password", "");
+        Connection conn;
+        try {
+            conn = new org.h2.Driver().connect(url, credentials);
+        } catch (SQLException e) {
+            // Databases written by H2 1.x can't be opened by H2 2.x
+            plugin.getLogger().log(Level.WARNING, "Failed to open " + LEGACY_FILE_NAME + ". If it was written by an older H2 version, "
+                    + "export it with that version's SCRIPT command and import it manually.", e);
+            return;
+        }
+
+        try (conn) {
+            String query = findLegacyQuery(conn.getMetaData());
+            if (query == null) {
+                plugin.getLogger().warning("Found " + LEGACY_FILE_NAME + ", but it has no table with uuid and balance columns. Nothing was imported.");
+                return;
+            }
+            int imported = 0;
+            int skipped = 0;
+            writeLock.lock();
+            try (PreparedStatement ps = conn.prepareStatement(query);
+                 ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    String uuid = rs.getString(1);
+                    UUID playerId;
+                    try {
+                        playerId = UUID.fromString(uuid.trim());
+                    } catch (IllegalArgumentException | NullPointerException e) {
+                        plugin.getLogger().warning("Skipped an account with the invalid UUID '" + uuid + "' in " + LEGACY_FILE_NAME + ".");
+                        skipped++;
+                        continue;
+                    }
+                    setBalance(playerId, rs.getLong(2));
+                    imported++;
+                }
+                store.commit();
+            } finally {
+                writeLock.unlock();
+            }
+            plugin.getLogger().info("Imported " + imported + " accounts from " + LEGACY_FILE_NAME + " into " + filePath.getFileName()
+                    + (skipped > 0 ? " (" + skipped + " skipped)." : "."));
+        } catch (Exception e) {
+            // A partial import must not reach the file: the next start would take it as complete and not import again
+            store.closeImmediately();
+            try {
+                Files.deleteIfExists(filePath);
+            } catch (IOException deleteError) {
+                e.addSuppressed(deleteError);
+            }
+            throw new RuntimeException("Failed to import " + LEGACY_FILE_NAME + ". It will be imported again on the next start.", e);
+        }
+    }
+
+    /**
+     * Builds the query that reads the accounts of the old database.
+     *
+     * @return The query, or null if no table has the columns it needs.
+     */
+    private static String findLegacyQuery(DatabaseMetaData metaData) throws SQLException {
+        // Table name to its uuid and balance column names
+        Map<String, String[]> tables = new LinkedHashMap<>();
+        try (ResultSet columns = metaData.getColumns(null, null, "%", "%")) {
+            while (columns.next()) {
+                String schema = columns.getString("TABLE_SCHEM");
+                String column = columns.getString("COLUMN_NAME");
+                int slot = switch (column.toUpperCase(Locale.ROOT)) {
+                    case "UUID" -> 0;
+                    case "BALANCE" -> 1;
+                    default -> -1;
+                };
+                if (slot >= 0 && !"INFORMATION_SCHEMA".equals(schema)) {
+                    String table = "\"" + schema + "\".\"" + columns.getString("TABLE_NAME") + "\"";
+                    tables.computeIfAbsent(table, k -> new String[2])[slot] = column;
+                }
+            }
+        }
+        for (Map.Entry<String, String[]> table : tables.entrySet()) {
+            String[] names = table.getValue();
+            if (names[0] != null && names[1] != null) {
+                return "SELECT \"" + names[0] + "\", \"" + names[1] + "\" FROM " + table.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes a balance to both maps. Must be called while holding the write lock.
+     */
+    private void setBalance(UUID uuid, long balance) {
+        Long previous = accounts.put(uuid, balance);
+        if (previous != null) {
+            if (previous == balance) {
+                return;
+            }
+            ranking.remove(new RankKey(previous, uuid));
+        }
+        ranking.put(new RankKey(balance, uuid), Boolean.TRUE);
+    }
+
+    /**
+     * Removes an account from both maps. Must be called while holding the write lock.
+     */
+    private void removeAccount(UUID uuid) {
+        Long previous = accounts.remove(uuid);
+        if (previous != null) {
+            ranking.remove(new RankKey(previous, uuid));
+        }
+    }
+
+    @Override
+    public Optional<PlayerData> getPlayerData(@NotNull UUID uuid) {
+        Long balance = accounts.get(uuid);
+        return balance != null ? Optional.of(new PlayerData(balance)) : Optional.empty();
+    }
+
+    @Override
+    public Map<UUID, Long> getBalances(@NotNull Collection<UUID> uuids) {
+        Map<UUID, Long> balances = new HashMap<>();
+        for (UUID uuid : uuids) {
+            Long balance = accounts.get(uuid);
+            if (balance != null) {
+                balances.put(uuid, balance);
+            }
+        }
+        return balances;
+    }
+
+    @Override
+    public void savePlayerData(@NotNull UUID uuid, @NotNull PlayerData data) {
+        writeLock.lock();
+        try {
+            setBalance(uuid, data.getBalance());
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void savePlayerDataBatch(@NotNull Map<UUID, PlayerData> data) {
+        writeLock.lock();
+        try {
+            data.forEach((uuid, playerData) -> setBalance(uuid, playerData.getBalance()));
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean supportsAtomicDeltas() {
+        return true;
+    }
+
+    @Override
+    public long addBalance(@NotNull UUID uuid, long amount) {
+        writeLock.lock();
+        try {
+            long newBalance = accounts.getOrDefault(uuid, 0L) + amount;
+            setBalance(uuid, newBalance);
+            return newBalance;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public long removeBalance(@NotNull UUID uuid, long amount) {
+        writeLock.lock();
+        try {
+            Long balance = accounts.get(uuid);
+            if (balance == null) {
+                return 0L; // No account, nothing to remove from
+            }
+            long newBalance = Math.max(0, balance - amount);
+            setBalance(uuid, newBalance);
+            return newBalance;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public OptionalLong withdrawBalance(@NotNull UUID uuid, long amount) {
+        writeLock.lock();
+        try {
+            Long balance = accounts.get(uuid);
+            if (balance == null || balance < amount) {
+                return OptionalLong.empty();
+            }
+            setBalance(uuid, balance - amount);
+            return OptionalLong.of(balance - amount);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean transfer(@NotNull UUID from, @NotNull UUID to, long amount, long fee) {
+        writeLock.lock();
+        try {
+            Long balance = accounts.get(from);
+            if (balance == null || balance < amount + fee) {
+                return false;
+            }
+            setBalance(from, balance - amount - fee);
+            setBalance(to, accounts.getOrDefault(to, 0L) + amount);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public List<OptionalLong> applyMutations(@NotNull List<BalanceMutation> mutations) {
+        MutationBatch batch = new MutationBatch(mutations);
+        writeLock.lock();
+        try {
+            for (UUID uuid : batch.accounts()) {
+                Long balance = accounts.get(uuid);
+                long newBalance = batch.apply(uuid, balance == null ? 0L : balance);
+                if (balance == null ? batch.createsAccount(uuid) : newBalance != balance) {
+                    setBalance(uuid, newBalance);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        return batch.results();
+    }
+
+    @Override
+    public void deletePlayerData(@NotNull UUID uuid) {
+        writeLock.lock();
+        try {
+            removeAccount(uuid);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void forEachAccount(@NotNull ObjLongConsumer<UUID> action) {
+        // Cursors walk a snapshot of the map, so writes can go on meanwhile
+        Cursor<UUID, Long> cursor = accounts.cursor(null);
+        while (cursor.hasNext()) {
+            UUID uuid = cursor.next();
+            action.accept(uuid, cursor.getValue());
+        }
+    }
+
+    @Override
+    public Map<UUID, Long> getTopBalances(int limit, int offset) {
+        Map<UUID, Long> topBalances = new LinkedHashMap<>();
+        long size = ranking.sizeAsLong();
+        if (limit <= 0 || offset < 0 || offset >= size) {
+            return topBalances;
+        }
+        RankKey start = ranking.getKey(size - 1 - offset);
+        if (start == null) {
+            // An account was deleted between the two reads; look again while no write is in progress
+            writeLock.lock();
+            try {
+                size = ranking.sizeAsLong();
+                if (offset >= size) {
+                    return topBalances;
+                }
+                start = ranking.getKey(size - 1 - offset);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        // The ranking map is in ascending order, so the leaderboard reads it backwards
+        Cursor<RankKey, Boolean> cursor = ranking.cursor(start, null, true);
+        while (topBalances.size() < limit && cursor.hasNext()) {
+            RankKey key = cursor.next();
+            topBalances.put(key.uuid(), key.balance());
+        }
+        return topBalances;
+    }
+
+    @Override
+    public int getRank(@NotNull UUID uuid) {
+        Long balance = accounts.get(uuid);
+        if (balance == null) {
+            return 0;
+        }
+        long index = ranking.getKeyIndex(new RankKey(balance, uuid));
+        if (index < 0) {
+            // The balance changed between the two reads; look again while no write is in progress
+            writeLock.lock();
+            try {
+                balance = accounts.get(uuid);
+                if (balance == null) {
+                    return 0;
+                }
+                index = ranking.getKeyIndex(new RankKey(balance, uuid));
+            } finally {
+                writeLock.unlock();
+            }
+        }
+        return (int) (ranking.sizeAsLong() - index);
+    }
+
+    @Override
+    public int getAccountCount() {
+        return (int) accounts.sizeAsLong();
+    }
+
+    /**
+     * A key of the ranking map, ordered by balance and then UUID.
+     */
+    private record RankKey(long balance, UUID uuid) implements Comparable<RankKey> {
+        @Override
+        public int compareTo(@NotNull RankKey other) {
+            int cmp = Long.compare(balance, other.balance);
+            return cmp != 0 ? cmp : uuid.compareTo(other.uuid);
+        }
+    }
+
+    private static final class UuidType extends BasicDataType<UUID> {
+        static final UuidType INSTANCE = new UuidType();
+
+        @Override
+        public int getMemory(UUID uuid) {
+            return 40;
+        }
+
+        @Override
+        public void write(WriteBuffer buffer, UUID uuid) {
+            buffer.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        }
+
+        @Override
+        public UUID read(ByteBuffer buffer) {
+            return new UUID(buffer.getLong(), buffer.getLong());
+        }
+
+        @Override
+        public int compare(UUID a, UUID b) {
+            return a.compareTo(b);
+        }
+
+        @Override
+        public UUID[] createStorage(int size) {
+            return new UUID[size];
+        }
+    }
+
+    private static final class RankKeyType extends BasicDataType<RankKey> {
+        static final RankKeyType INSTANCE = new RankKeyType();
+
+        @Override
+        public int getMemory(RankKey key) {
+            return 64;
+        }
+
+        @Override
+        public void write(WriteBuffer buffer, RankKey key) {
+            buffer.putLong(key.balance()).putLong(key.uuid().getMostSignificantBits()).putLong(key.uuid().getLeastSignificantBits());
+        }
+
+        @Override
+        public RankKey read(ByteBuffer buffer) {
+            return new RankKey(buffer.getLong(), new UUID(buffer.getLong(), buffer.getLong()));
+        }
+
+        @Override
+        public int compare(RankKey a, RankKey b) {
+            return a.compareTo(b);
+        }
+
+        @Override
+        public RankKey[] createStorage(int size) {
+            return new RankKey[size];
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.minekarta.kec.storage.provider;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Brings the MySQL schema up to date by applying the migrations not yet recorded in
+ * {@code kec_schema_version}, in order. Each migration is recorded as soon as it succeeds, so a
+ * server that stops halfway continues with the next one on its next start. Servers sharing the
+ * database take a named lock first, so only one of them migrates at a time.
+ * <p>
+ * Migrations that touch {@code kec_accounts} run as online DDL ({@code ALGORITHM=INPLACE, LOCK=NONE})
+ * or in small batches, so the table stays readable and writable while a large one is converted.
+ */
+final class MySqlSchemaMigrator {
+
+    @FunctionalInterface
+    private interface MigrationStep {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    private record Migration(int version, String description, MigrationStep step) {
+    }
+
+    private static final String CREATE_VERSION_TABLE = """
+            CREATE TABLE IF NOT EXISTS kec_schema_version (
+                version INT NOT NULL,
+                description VARCHAR(255) NOT NULL,
+                applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+                PRIMARY KEY (version)
+            ) ENGINE=InnoDB;""";
+    private static final String GET_VERSION = "SELECT COALESCE(MAX(version), 0) FROM kec_schema_version;";
+    private static final String RECORD_VERSION = "INSERT INTO kec_schema_version (version, description) VALUES (?, ?);";
+    private static final String ACQUIRE_LOCK = "SELECT GET_LOCK('kec_schema_migration', ?);";
+    private static final String RELEASE_LOCK = "SELECT RELEASE_LOCK('kec_schema_migration');";
+    private static final int LOCK_TIMEOUT_SECONDS = 300;
+    private static final String HAS_COLUMN = "SELECT 1 FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'kec_accounts' AND COLUMN_NAME = ? LIMIT 1;";
+    private static final String HAS_BALANCE_INDEX = "SELECT 1 FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'kec_accounts' AND INDEX_NAME = 'idx_kec_accounts_balance' LIMIT 1;";
+
+    private static final String CREATE_ACCOUNTS_TABLE = """
+            CREATE TABLE IF NOT EXISTS kec_accounts (
+                uuid CHAR(36) NOT NULL,
+                balance BIGINT NOT NULL DEFAULT 0,
+                PRIMARY KEY (uuid)
+            ) ENGINE=InnoDB;""";
+    private static final String ADD_BALANCE_INDEX = "ALTER TABLE kec_accounts ADD INDEX idx_kec_accounts_balance (balance), ALGORITHM=INPLACE, LOCK=NONE;";
+    private static final String ADD_BINARY_UUID = "ALTER TABLE kec_accounts ADD COLUMN uuid_bin BINARY(16) NULL, ALGORITHM=INPLACE, LOCK=NONE;";
+    // Fills the new column for rows that servers still running an older version insert during the conversion
+    private static final String CREATE_BINARY_UUID_TRIGGER = "CREATE TRIGGER kec_accounts_uuid_bin BEFORE INSERT ON kec_accounts FOR EACH ROW SET NEW.uuid_bin = UNHEX(REPLACE(NEW.uuid, '-', ''));";
+    private static final String DROP_BINARY_UUID_TRIGGER = "DROP TRIGGER IF EXISTS kec_accounts_uuid_bin;";
+    // The fill walks the primary key in ranges of FILL_CHUNK_SIZE rows, each committed on its own
+    private static final String GET_FILL_BOUNDARY = "SELECT uuid FROM kec_accounts WHERE uuid > ? ORDER BY uuid LIMIT 1 OFFSET ?;";
+    private static final String FILL_BINARY_UUID_RANGE = "UPDATE kec_accounts SET uuid_bin = UNHEX(REPLACE(uuid, '-', '')) WHERE uuid > ? AND uuid <= ?;";
+    private static final String FILL_BINARY_UUID_REST = "UPDATE kec_accounts SET uuid_bin = UNHEX(REPLACE(uuid, '-', '')) WHERE uuid > ?;";
+    // Picks up rows inserted behind the fill when the trigger couldn't be created
+    private static final String FILL_BINARY_UUID_MISSING = "UPDATE kec_accounts SET uuid_bin = UNHEX(REPLACE(uuid, '-', '')) WHERE uuid_bin IS NULL;";
+    private static final String COUNT_INVALID_UUIDS = "SELECT COUNT(*) FROM kec_accounts WHERE COALESCE(LENGTH(UNHEX(REPLACE(uuid, '-', ''))), 0) <> 16;";
+    private static final int FILL_CHUNK_SIZE = 5000;
+    // Without the trigger, the swap fails if such a row arrives between the last fill and the end of the ALTER
+    private static final int MAX_SWAP_ATTEMPTS = 5;
+    private static final String SWAP_PRIMARY_KEY = "ALTER TABLE kec_accounts MODIFY uuid_bin BINARY(16) NOT NULL, DROP PRIMARY KEY, ADD PRIMARY KEY (uuid_bin), DROP COLUMN uuid, ALGORITHM=INPLACE, LOCK=NONE;";
+    private static final String RENAME_BINARY_UUID = "ALTER TABLE kec_accounts CHANGE COLUMN uuid_bin uuid BINARY(16) NOT NULL, ALGORITHM=INPLACE, LOCK=NONE;";
+
+    private final List<Migration> migrations = List.of(
+            new Migration(1, "Create kec_accounts", conn -> execute(conn, CREATE_ACCOUNTS_TABLE)),
+            new Migration(2, "Add balance index", conn -> {
+                if (!exists(conn, HAS_BALANCE_INDEX, null)) {
+                    execute(conn, ADD_BALANCE_INDEX);
+                }
+            }),
+            new Migration(3, "Add binary uuid column", this::addBinaryUuid),
+            new Migration(4, "Fill binary uuid column", this::fillBinaryUuids),
+            new Migration(5, "Make binary uuid the primary key", this::swapPrimaryKey),
+            new Migration(6, "Rename binary uuid column", conn -> {
+                if (exists(conn, HAS_COLUMN, "uuid_bin")) {
+                    execute(conn, RENAME_BINARY_UUID);
+                }
+            })
+    );
+
+    private final Logger logger;
+
+    MySqlSchemaMigrator(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Applies every migration newer than the recorded schema version.
+     *
+     * @param conn A connection in auto-commit mode, used for all migrations.
+     * @throws SQLException If a migration fails, or the database was migrated by a newer version of the plugin.
+     */
+    void migrate(Connection conn) throws SQLException {
+        execute(conn, CREATE_VERSION_TABLE);
+        try (PreparedStatement ps = conn.prepareStatement(ACQUIRE_LOCK)) {
+            ps.setInt(1, LOCK_TIMEOUT_SECONDS);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getInt(1) != 1) {
+                    throw new SQLException("Timed out waiting for another server to finish migrating the schema");
+                }
+            }
+        }
+        try {
+            int version = currentVersion(conn);
+            int latest = migrations.get(migrations.size() - 1).version();
+            if (version > latest) {
+                throw new SQLException("The database schema is at version " + version + ", but this version of the plugin only knows up to " + latest);
+            }
+            for (Migration migration : migrations) {
+                if (migration.version() <= version) {
+                    continue;
+                }
+                logger.info("Migrating MySQL schema to version " + migration.version() + ": " + migration.description() + "...");
+                migration.step().apply(conn);
+                try (PreparedStatement ps = conn.prepareStatement(RECORD_VERSION)) {
+                    ps.setInt(1, migration.version());
+                    ps.setString(2, migration.description());
+                    ps.executeUpdate();
+                }
+            }
+        } finally {
+            execute(conn, RELEASE_LOCK);
+        }
+    }
+
+    private static int currentVersion(Connection conn) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(GET_VERSION);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Converts the text keys in ranges of the primary key, so each update only locks a few
+     * thousand rows for a moment instead of the whole table for the whole conversion.
+     */
+    private void fillBinaryUuids(Connection conn) throws SQLException {
+        if (!exists(conn, HAS_COLUMN, "uuid")) {
+            return; // Already converted
+        }
+        try (PreparedStatement ps = conn.prepareStatement(COUNT_INVALID_UUIDS);
+             ResultSet rs = ps.executeQuery()) {
+            if (rs.next() && rs.getLong(1) > 0) {
+                throw new SQLException(rs.getLong(1) + " rows in kec_accounts have a uuid that is not a valid UUID");
+            }
+        }
+
+        String lastUuid = "";
+        long converted = 0;
+        for (int chunk = 1; ; chunk++) {
+            String boundary;
+            try (PreparedStatement ps = conn.prepareStatement(GET_FILL_BOUNDARY)) {
+                ps.setString(1, lastUuid);
+                ps.setInt(2, FILL_CHUNK_SIZE - 1);
+                try (ResultSet rs = ps.executeQuery()) {
+                    boundary = rs.next() ? rs.getString(1) : null;
+                }
+            }
+            if (boundary == null) {
+                try (PreparedStatement ps = conn.prepareStatement(FILL_BINARY_UUID_REST)) {
+                    ps.setString(1, lastUuid);
+                    converted += ps.executeUpdate();
+                }
+                break;
+            }
+            try (PreparedStatement ps = conn.prepareStatement(FILL_BINARY_UUID_RANGE)) {
+                ps.setString(1, lastUuid);
+                ps.setString(2, boundary);
+                converted += ps.executeUpdate();
+            }
+            lastUuid = boundary;
+            if (chunk % 20 == 0) {
+                logger.info("Converted " + converted + " account keys...");
+            }
+        }
+        logger.info("Converted " + converted + " account keys.");
+    }
+
+    private void addBinaryUuid(Connection conn) throws SQLException {
+        if (!exists(conn, HAS_COLUMN, "uuid_bin")) {
+            execute(conn, ADD_BINARY_UUID);
+        }
+        execute(conn, DROP_BINARY_UUID_TRIGGER);
+        try {
+            execute(conn, CREATE_BINARY_UUID_TRIGGER);
+        } catch (SQLException e) {
+            // Creating triggers needs the TRIGGER privilege, and SUPER on servers with binary logging
+            logger.warning("Could not create a trigger on kec_accounts (" + e.getMessage() + "). "
+                    + "Stop other servers using this database until the conversion is done, or it may fail.");
+        }
+    }
+
+    private void swapPrimaryKey(Connection conn) throws SQLException {
+        if (exists(conn, HAS_COLUMN, "uuid")) {
+            for (int attempt = 1; ; attempt++) {
+                execute(conn, FILL_BINARY_UUID_MISSING);
+                try {
+                    execute(conn, SWAP_PRIMARY_KEY);
+                    break;
+                } catch (SQLException e) {
+                    if (attempt >= MAX_SWAP_ATTEMPTS) {
+                        throw e;
+                    }
+                    logger.warning("Failed to swap the primary key of kec_accounts, retrying: " + e.getMessage());
+                }
+            }
+        }
+        // The trigger refers to the text column, which is gone now
+        execute(conn, DROP_BINARY_UUID_TRIGGER);
+    }
+
+    private static boolean exists(Connection conn, String sql, String parameter) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            if (parameter != null) {
+                ps.setString(1, parameter);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static void execute(Connection conn, String sql) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            ps.execute();
+        }
+    }
+}
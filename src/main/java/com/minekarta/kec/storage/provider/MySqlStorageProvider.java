@@ -1,5 +1,6 @@
 package com.minekarta.kec.storage.provider;
 
+import com.minekarta.kec.api.BalanceMutation;
 import com.zaxxer.hikari.HikariDataSource;
 import org.jetbrains.annotations.NotNull;
 
@@ -7,10 +8,20 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,16 +30,33 @@ public class MySqlStorageProvider implements StorageProvider {
     private final HikariDataSource dataSource;
     private final Logger logger;
 
-    private static final String CREATE_TABLE = """
-            CREATE TABLE IF NOT EXISTS kec_accounts (
-                uuid CHAR(36) NOT NULL,
-                balance BIGINT NOT NULL DEFAULT 0,
-                PRIMARY KEY (uuid)
-            ) ENGINE=InnoDB;""";
+    // COUNT(*) has to scan an index on InnoDB, so the result is reused for a short while
+    private static final long ACCOUNT_COUNT_TTL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private volatile int cachedAccountCount = -1;
+    private volatile long accountCountExpiry;
+
     private static final String GET_PLAYER = "SELECT balance FROM kec_accounts WHERE uuid = ?;";
     private static final String SAVE_PLAYER = "INSERT INTO kec_accounts (uuid, balance) VALUES (?, ?) ON DUPLICATE KEY UPDATE balance = VALUES(balance);";
+    // LAST_INSERT_ID(expr) hands the new balance back with the update result, saving a SELECT
+    private static final String ADD_BALANCE = "INSERT INTO kec_accounts (uuid, balance) VALUES (?, LAST_INSERT_ID(?)) ON DUPLICATE KEY UPDATE balance = LAST_INSERT_ID(balance + VALUES(balance));";
+    private static final String REMOVE_BALANCE = "UPDATE kec_accounts SET balance = LAST_INSERT_ID(GREATEST(balance - ?, 0)) WHERE uuid = ?;";
+    private static final String WITHDRAW_BALANCE = "UPDATE kec_accounts SET balance = LAST_INSERT_ID(balance - ?) WHERE uuid = ? AND balance >= ?;";
+    // Debits the sender and credits the receiver in one statement; only matches if the receiver exists
+    private static final String TRANSFER = "UPDATE kec_accounts s JOIN kec_accounts r ON r.uuid = ? SET s.balance = s.balance - ?, r.balance = r.balance + ? WHERE s.uuid = ? AND s.balance >= ?;";
+    private static final String DEBIT = "UPDATE kec_accounts SET balance = balance - ? WHERE uuid = ? AND balance >= ?;";
+    private static final String CREDIT = "INSERT INTO kec_accounts (uuid, balance) VALUES (?, ?) ON DUPLICATE KEY UPDATE balance = balance + VALUES(balance);";
+    private static final String DEADLOCK_SQL_STATE = "40001";
+    private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+    // Bounds the number of placeholders in a single IN (...) list
+    private static final int IN_CLAUSE_CHUNK_SIZE = 500;
     private static final String DELETE_PLAYER = "DELETE FROM kec_accounts WHERE uuid = ?;";
-    private static final String GET_ALL_PLAYERS = "SELECT uuid, balance FROM kec_accounts;";
+    // Keyset pagination: each page seeks past the last key of the previous one instead of skipping rows
+    private static final String GET_ACCOUNT_PAGE = "SELECT uuid, balance FROM kec_accounts WHERE uuid > ? ORDER BY uuid LIMIT ?;";
+    private static final int ACCOUNT_PAGE_SIZE = 1000;
+    private static final String COUNT_PLAYERS = "SELECT COUNT(*) FROM kec_accounts;";
+    private static final String GET_RANK = "SELECT (SELECT COUNT(*) FROM kec_accounts o WHERE o.balance > a.balance OR (o.balance = a.balance AND o.uuid > a.uuid)) + 1 AS player_rank FROM kec_accounts a WHERE a.uuid = ?;";
+    // Walks idx_kec_accounts_balance backwards; the index carries the primary key, so uuid breaks ties for free
+    private static final String GET_TOP_BALANCES = "SELECT uuid, balance FROM kec_accounts ORDER BY balance DESC, uuid DESC LIMIT ? OFFSET ?;";
 
     public MySqlStorageProvider(HikariDataSource dataSource, Logger logger) {
         this.dataSource = dataSource;
@@ -37,9 +65,8 @@ public class MySqlStorageProvider implements StorageProvider {
 
     @Override
     public void initialize() {
-        try (Connection conn = dataSource.getConnection();
-             PreparedStatement ps = conn.prepareStatement(CREATE_TABLE)) {
-            ps.execute();
+        try (Connection conn = dataSource.getConnection()) {
+            new MySqlSchemaMigrator(logger).migrate(conn);
         } catch (SQLException e) {
             throw new RuntimeException("Failed to initialize MySQL database tables", e);
         }
@@ -54,7 +81,7 @@ public class MySqlStorageProvider implements StorageProvider {
     public Optional<PlayerData> getPlayerData(@NotNull UUID uuid) {
         try (Connection conn = dataSource.getConnection();
              PreparedStatement ps = conn.prepareStatement(GET_PLAYER)) {
-            ps.setString(1, uuid.toString());
+            ps.setBytes(1, toBytes(uuid));
             ResultSet rs = ps.executeQuery();
             if (rs.next()) {
                 return Optional.of(new PlayerData(rs.getLong("balance")));
@@ -65,11 +92,24 @@ public class MySqlStorageProvider implements StorageProvider {
         return Optional.empty();
     }
 
+    @Override
+    public Map<UUID, Long> getBalances(@NotNull Collection<UUID> uuids) {
+        if (uuids.isEmpty()) {
+            return new HashMap<>();
+        }
+        try (Connection conn = dataSource.getConnection()) {
+            return readBalances(conn, new ArrayList<>(new LinkedHashSet<>(uuids)), false);
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to get balances for " + uuids.size() + " players", e);
+        }
+        return new HashMap<>();
+    }
+
     @Override
     public void savePlayerData(@NotNull UUID uuid, @NotNull PlayerData data) {
         try (Connection conn = dataSource.getConnection();
              PreparedStatement ps = conn.prepareStatement(SAVE_PLAYER)) {
-            ps.setString(1, uuid.toString());
+            ps.setBytes(1, toBytes(uuid));
             ps.setLong(2, data.getBalance());
             ps.executeUpdate();
         } catch (SQLException e) {
@@ -77,31 +117,330 @@ public class MySqlStorageProvider implements StorageProvider {
         }
     }
 
+    @Override
+    public void savePlayerDataBatch(@NotNull Map<UUID, PlayerData> data) {
+        if (data.isEmpty()) {
+            return;
+        }
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(SAVE_PLAYER)) {
+            for (Map.Entry<UUID, PlayerData> entry : data.entrySet()) {
+                ps.setBytes(1, toBytes(entry.getKey()));
+                ps.setLong(2, entry.getValue().getBalance());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to save data for " + data.size() + " players", e);
+        }
+    }
+
+    @Override
+    public boolean supportsAtomicDeltas() {
+        return true;
+    }
+
+    @Override
+    public long addBalance(@NotNull UUID uuid, long amount) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(ADD_BALANCE, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setBytes(1, toBytes(uuid));
+            ps.setLong(2, amount);
+            ps.executeUpdate();
+            return readReturnedBalance(ps);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to add balance for " + uuid, e);
+        }
+    }
+
+    @Override
+    public long removeBalance(@NotNull UUID uuid, long amount) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(REMOVE_BALANCE, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setLong(1, amount);
+            ps.setBytes(2, toBytes(uuid));
+            if (ps.executeUpdate() == 0) {
+                return 0L; // No account, nothing to remove from
+            }
+            return readReturnedBalance(ps);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to remove balance for " + uuid, e);
+        }
+    }
+
+    @Override
+    public OptionalLong withdrawBalance(@NotNull UUID uuid, long amount) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(WITHDRAW_BALANCE, Statement.RETURN_GENERATED_KEYS)) {
+            ps.setLong(1, amount);
+            ps.setBytes(2, toBytes(uuid));
+            ps.setLong(3, amount);
+            if (ps.executeUpdate() == 0) {
+                return OptionalLong.empty(); // Missing account or insufficient funds
+            }
+            return OptionalLong.of(readReturnedBalance(ps));
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to withdraw balance for " + uuid, e);
+        }
+    }
+
+    @Override
+    public boolean transfer(@NotNull UUID from, @NotNull UUID to, long amount, long fee) {
+        for (int attempt = 1; ; attempt++) {
+            try (Connection conn = dataSource.getConnection()) {
+                if (!from.equals(to) && transferInPlace(conn, from, to, amount, fee)) {
+                    return true;
+                }
+                // Either the sender can't pay or the receiver has no row yet; settle it in a transaction
+                return transferInTransaction(conn, from, to, amount, fee);
+            } catch (SQLException e) {
+                if (DEADLOCK_SQL_STATE.equals(e.getSQLState()) && attempt < MAX_TRANSACTION_ATTEMPTS) {
+                    continue;
+                }
+                throw new RuntimeException("Failed to transfer " + amount + " from " + from + " to " + to, e);
+            }
+        }
+    }
+
+    private boolean transferInPlace(Connection conn, UUID from, UUID to, long amount, long fee) throws SQLException {
+        try (PreparedStatement ps = conn.prepareStatement(TRANSFER)) {
+            ps.setBytes(1, toBytes(to));
+            ps.setLong(2, amount + fee);
+            ps.setLong(3, amount);
+            ps.setBytes(4, toBytes(from));
+            ps.setLong(5, amount + fee);
+            return ps.executeUpdate() == 2;
+        }
+    }
+
+    private boolean transferInTransaction(Connection conn, UUID from, UUID to, long amount, long fee) throws SQLException {
+        conn.setAutoCommit(false);
+        try (PreparedStatement debit = conn.prepareStatement(DEBIT);
+             PreparedStatement credit = conn.prepareStatement(CREDIT)) {
+            debit.setLong(1, amount + fee);
+            debit.setBytes(2, toBytes(from));
+            debit.setLong(3, amount + fee);
+            if (debit.executeUpdate() == 0) {
+                conn.rollback();
+                return false; // Insufficient funds
+            }
+
+            credit.setBytes(1, toBytes(to));
+            credit.setLong(2, amount);
+            credit.executeUpdate();
+            conn.commit();
+            return true;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    @Override
+    public List<OptionalLong> applyMutations(@NotNull List<BalanceMutation> mutations) {
+        for (int attempt = 1; ; attempt++) {
+            MutationBatch batch = new MutationBatch(mutations);
+            try (Connection conn = dataSource.getConnection()) {
+                applyMutationsInTransaction(conn, batch);
+                return batch.results();
+            } catch (SQLException e) {
+                if (DEADLOCK_SQL_STATE.equals(e.getSQLState()) && attempt < MAX_TRANSACTION_ATTEMPTS) {
+                    continue;
+                }
+                throw new RuntimeException("Failed to apply " + mutations.size() + " balance mutations", e);
+            }
+        }
+    }
+
+    /**
+     * Locks the affected rows, applies the mutations in memory and writes every changed
+     * account back in a single JDBC batch, all within one transaction.
+     */
+    private void applyMutationsInTransaction(Connection conn, MutationBatch batch) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            List<UUID> accounts = new ArrayList<>(batch.accounts());
+            Map<UUID, Long> current = readBalances(conn, accounts, true);
+
+            try (PreparedStatement ps = conn.prepareStatement(SAVE_PLAYER)) {
+                for (UUID uuid : accounts) {
+                    Long balance = current.get(uuid);
+                    long newBalance = batch.apply(uuid, balance == null ? 0L : balance);
+                    if (balance == null ? batch.createsAccount(uuid) : newBalance != balance) {
+                        ps.setBytes(1, toBytes(uuid));
+                        ps.setLong(2, newBalance);
+                        ps.addBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Reads the balances of the given accounts with one {@code IN (...)} query per chunk.
+     * With {@code forUpdate}, the rows stay locked until the surrounding transaction ends.
+     */
+    private static Map<UUID, Long> readBalances(Connection conn, List<UUID> uuids, boolean forUpdate) throws SQLException {
+        Map<UUID, Long> balances = new HashMap<>();
+        for (int from = 0; from < uuids.size(); from += IN_CLAUSE_CHUNK_SIZE) {
+            List<UUID> chunk = uuids.subList(from, Math.min(from + IN_CLAUSE_CHUNK_SIZE, uuids.size()));
+            String sql = "SELECT uuid, balance FROM kec_accounts WHERE uuid IN (" + placeholders(chunk.size()) + ")" + (forUpdate ? " FOR UPDATE;" : ";");
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    ps.setBytes(i + 1, toBytes(chunk.get(i)));
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        balances.put(fromBytes(rs.getBytes("uuid")), rs.getLong("balance"));
+                    }
+                }
+            }
+        }
+        return balances;
+    }
+
+    /**
+     * Encodes a UUID as the 16 bytes of the {@code BINARY(16)} key, most significant byte first,
+     * so the keys sort the same way as the hexadecimal strings they replaced.
+     */
+    private static byte[] toBytes(UUID uuid) {
+        byte[] bytes = new byte[16];
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (msb >>> (56 - 8 * i));
+            bytes[i + 8] = (byte) (lsb >>> (56 - 8 * i));
+        }
+        return bytes;
+    }
+
+    private static UUID fromBytes(byte[] bytes) {
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < 8; i++) {
+            msb = (msb << 8) | (bytes[i] & 0xFF);
+            lsb = (lsb << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return new UUID(msb, lsb);
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    /**
+     * Reads the balance passed back through {@code LAST_INSERT_ID(expr)}.
+     * The driver reports it as the generated key; a value of zero is not reported at all,
+     * and negative values come back as their unsigned 64-bit representation.
+     */
+    private static long readReturnedBalance(PreparedStatement ps) throws SQLException {
+        try (ResultSet keys = ps.getGeneratedKeys()) {
+            return keys.next() ? keys.getBigDecimal(1).toBigInteger().longValue() : 0L;
+        }
+    }
+
     @Override
     public void deletePlayerData(@NotNull UUID uuid) {
         try (Connection conn = dataSource.getConnection();
              PreparedStatement ps = conn.prepareStatement(DELETE_PLAYER)) {
-            ps.setString(1, uuid.toString());
+            ps.setBytes(1, toBytes(uuid));
             ps.executeUpdate();
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "Failed to delete player data for " + uuid, e);
         }
     }
 
+    /**
+     * Reads the accounts in primary key order, one page at a time, each page starting after the
+     * last key of the previous one. A connection is only held while a page is read, so a slow
+     * action doesn't tie up the pool, and every page is a range scan however far the iteration got.
+     */
     @Override
-    public Map<UUID, PlayerData> getAllPlayerData() {
-        Map<UUID, PlayerData> allData = new HashMap<>();
+    public void forEachAccount(@NotNull ObjLongConsumer<UUID> action) {
+        byte[] lastUuid = new byte[0];
+        while (true) {
+            List<UUID> uuids = new ArrayList<>(ACCOUNT_PAGE_SIZE);
+            List<Long> balances = new ArrayList<>(ACCOUNT_PAGE_SIZE);
+            try (Connection conn = dataSource.getConnection();
+                 PreparedStatement ps = conn.prepareStatement(GET_ACCOUNT_PAGE)) {
+                ps.setBytes(1, lastUuid);
+                ps.setInt(2, ACCOUNT_PAGE_SIZE);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        uuids.add(fromBytes(rs.getBytes("uuid")));
+                        balances.add(rs.getLong("balance"));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to read accounts after " + (lastUuid.length == 0 ? "the start" : fromBytes(lastUuid)), e);
+            }
+            for (int i = 0; i < uuids.size(); i++) {
+                action.accept(uuids.get(i), balances.get(i));
+            }
+            if (uuids.size() < ACCOUNT_PAGE_SIZE) {
+                return;
+            }
+            lastUuid = toBytes(uuids.get(uuids.size() - 1));
+        }
+    }
+
+    @Override
+    public Map<UUID, Long> getTopBalances(int limit, int offset) {
+        Map<UUID, Long> topBalances = new LinkedHashMap<>();
         try (Connection conn = dataSource.getConnection();
-             PreparedStatement ps = conn.prepareStatement(GET_ALL_PLAYERS)) {
+             PreparedStatement ps = conn.prepareStatement(GET_TOP_BALANCES)) {
+            ps.setInt(1, limit);
+            ps.setInt(2, offset);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
-                UUID uuid = UUID.fromString(rs.getString("uuid"));
-                long balance = rs.getLong("balance");
-                allData.put(uuid, new PlayerData(balance));
+                topBalances.put(fromBytes(rs.getBytes("uuid")), rs.getLong("balance"));
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to get top balances", e);
+        }
+        return topBalances;
+    }
+
+    @Override
+    public int getRank(@NotNull UUID uuid) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(GET_RANK)) {
+            ps.setBytes(1, toBytes(uuid));
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                return rs.getInt("player_rank");
             }
         } catch (SQLException e) {
-            logger.log(Level.SEVERE, "Failed to get all player data", e);
+            logger.log(Level.SEVERE, "Failed to get rank for " + uuid, e);
+        }
+        return 0;
+    }
+
+    @Override
+    public int getAccountCount() {
+        int cached = cachedAccountCount;
+        if (cached >= 0 && System.nanoTime() - accountCountExpiry < 0) {
+            return cached;
+        }
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement ps = conn.prepareStatement(COUNT_PLAYERS)) {
+            ResultSet rs = ps.executeQuery();
+            int count = rs.next() ? rs.getInt(1) : 0;
+            this.accountCountExpiry = System.nanoTime() + ACCOUNT_COUNT_TTL_NANOS;
+            this.cachedAccountCount = count;
+            return count;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Failed to count player accounts", e);
+            return Math.max(0, cached);
         }
-        return allData;
     }
 }
@@ -0,0 +1,170 @@
+package com.minekarta.kec.storage.provider;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.yaml.snakeyaml.Yaml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Reads and writes player files without going through SnakeYAML's reflective object mapping.
+ * <p>
+ * Files are written as a single {@code balance: N} line. On reading, that shape is parsed directly,
+ * with or without the {@code !!com.minekarta.kec.storage.provider.PlayerData} tag older versions
+ * wrote, and with blank lines, comments and a document marker allowed around it. Anything else,
+ * e.g. a file edited by hand into flow style, falls back to a full YAML parser, so every file
+ * SnakeYAML could read before is still read the same way.
+ */
+final class PlayerDataCodec {
+
+    private static final byte[] TAG = ("!!" + PlayerData.class.getName()).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DOCUMENT_START = "---".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BALANCE_KEY = "balance:".getBytes(StandardCharsets.US_ASCII);
+
+    private PlayerDataCodec() {
+    }
+
+    /**
+     * Encodes the contents of a player file.
+     *
+     * @param balance The balance of the player.
+     * @return The file contents.
+     */
+    static byte[] encode(long balance) {
+        return ("balance: " + balance + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Decodes the contents of a player file.
+     *
+     * @param content The file contents.
+     * @param fallback Supplies the YAML parser for files that aren't in the plain shape.
+     * @return The player data, or null if the file holds no data.
+     */
+    static @Nullable PlayerData decode(byte @NotNull [] content, @NotNull Supplier<Yaml> fallback) {
+        PlayerData data = decodePlain(content);
+        return data != null ? data : fallback.get().load(new String(content, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses the plain shape of a player file.
+     *
+     * @return The player data, or null if the content needs a full YAML parser.
+     */
+    static @Nullable PlayerData decodePlain(byte @NotNull [] content) {
+        int length = content.length;
+        int pos = 0;
+        if (length >= 3 && content[0] == (byte) 0xEF && content[1] == (byte) 0xBB && content[2] == (byte) 0xBF) {
+            pos = 3; // Byte order mark
+        }
+        boolean found = false;
+        long balance = 0;
+        while (pos < length) {
+            int lineEnd = pos;
+            while (lineEnd < length && content[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            int start = skipSpaces(content, pos, lineEnd);
+            int end = lineEnd;
+            while (end > start && isSpace(content[end - 1])) {
+                end--;
+            }
+            // SnakeYAML rejects a tab anywhere before the value of a line; leave such lines to it
+            if (containsTab(content, pos, start)) {
+                return null;
+            }
+            pos = next;
+
+            if (start == end || content[start] == '#') {
+                continue;
+            }
+            if (startsWith(content, start, end, DOCUMENT_START)) {
+                if (containsTab(content, start, lineEnd)) {
+                    return null;
+                }
+                int tagStart = skipSpaces(content, start + DOCUMENT_START.length, end);
+                if (tagStart == end || matches(content, tagStart, end, TAG)) {
+                    continue;
+                }
+                return null;
+            }
+            if (matches(content, start, end, TAG)) {
+                continue;
+            }
+            if (found || !startsWith(content, start, end, BALANCE_KEY)) {
+                return null;
+            }
+
+            int valueStart = start + BALANCE_KEY.length;
+            if (valueStart == end || !isSpace(content[valueStart])) {
+                return null; // "balance:5" is a string in YAML, and "balance:" a null value
+            }
+            int i = skipSpaces(content, valueStart, end);
+            if (containsTab(content, valueStart, i)) {
+                return null;
+            }
+            boolean negative = i < end && content[i] == '-';
+            if (negative) {
+                i++;
+            }
+            int digitsStart = i;
+            long value = 0;
+            while (i < end && content[i] >= '0' && content[i] <= '9') {
+                if (value > (Long.MAX_VALUE - 9) / 10) {
+                    return null; // Too large to parse safely here
+                }
+                value = value * 10 + (content[i] - '0');
+                i++;
+            }
+            int digits = i - digitsStart;
+            // YAML reads a leading zero as octal; leave such numbers to the full parser
+            if (digits == 0 || (digits > 1 && content[digitsStart] == '0')) {
+                return null;
+            }
+            if (i < end && !(isSpace(content[i]) && content[skipSpaces(content, i, end)] == '#')) {
+                return null;
+            }
+            balance = negative ? -value : value;
+            found = true;
+        }
+        return found ? new PlayerData(balance) : null;
+    }
+
+    private static int skipSpaces(byte[] content, int from, int to) {
+        while (from < to && isSpace(content[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean containsTab(byte[] content, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (content[i] == '\t') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean startsWith(byte[] content, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (content[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(byte[] content, int start, int end, byte[] expected) {
+        return end - start == expected.length && startsWith(content, start, end, expected);
+    }
+}
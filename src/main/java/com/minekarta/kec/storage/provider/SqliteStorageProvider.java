@@ -0,0 +1,411 @@
+package com.minekarta.kec.storage.provider;
+
+import com.minekarta.kec.KartaEmeraldCurrencyPlugin;
+import com.minekarta.kec.api.BalanceMutation;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.function.ObjLongConsumer;
+import java.util.logging.Level;
+
+/**
+ * Stores accounts in an embedded SQLite database in the plugin folder.
+ * <p>
+ * The database runs in WAL mode, so readers never block the writer or each other. All writes go
+ * through a single connection, which SQLite allows only one of at a time anyway, while lookups,
+ * leaderboards and counts use a separate pool of read-only connections.
+ */
+public class SqliteStorageProvider implements StorageProvider {
+
+    private final KartaEmeraldCurrencyPlugin plugin;
+    private HikariDataSource writer;
+    private HikariDataSource readers;
+
+    private static final String CREATE_TABLE = """
+            CREATE TABLE IF NOT EXISTS kec_accounts (
+                uuid TEXT NOT NULL PRIMARY KEY,
+                balance INTEGER NOT NULL DEFAULT 0
+            ) WITHOUT ROWID;""";
+    // Serves leaderboard pages and ranks straight from the index, in either direction
+    private static final String CREATE_BALANCE_INDEX = "CREATE INDEX IF NOT EXISTS idx_kec_accounts_balance ON kec_accounts (balance, uuid);";
+    private static final String GET_PLAYER = "SELECT balance FROM kec_accounts WHERE uuid = ?;";
+    private static final String SAVE_PLAYER = "INSERT INTO kec_accounts (uuid, balance) VALUES (?, ?) ON CONFLICT (uuid) DO UPDATE SET balance = excluded.balance;";
+    // RETURNING hands the new balance back with the update result, saving a SELECT
+    private static final String ADD_BALANCE = "INSERT INTO kec_accounts (uuid, balance) VALUES (?, ?) ON CONFLICT (uuid) DO UPDATE SET balance = balance + excluded.balance RETURNING balance;";
+    private static final String REMOVE_BALANCE = "UPDATE kec_accounts SET balance = MAX(balance - ?, 0) WHERE uuid = ? RETURNING balance;";
+    private static final String WITHDRAW_BALANCE = "UPDATE kec_accounts SET balance = balance - ? WHERE uuid = ? AND balance >= ? RETURNING balance;";
+    private static final String DEBIT = "UPDATE kec_accounts SET balance = balance - ? WHERE uuid = ? AND balance >= ?;";
+    private static final String CREDIT = "INSERT INTO kec_accounts (uuid, balance) VALUES (?, ?) ON CONFLICT (uuid) DO UPDATE SET balance = balance + excluded.balance;";
+    // Bounds the number of placeholders in a single IN (...) list
+    private static final int IN_CLAUSE_CHUNK_SIZE = 500;
+    private static final String DELETE_PLAYER = "DELETE FROM kec_accounts WHERE uuid = ?;";
+    private static final String GET_ALL_PLAYERS = "SELECT uuid, balance FROM kec_accounts;";
+    private static final String COUNT_PLAYERS = "SELECT COUNT(*) FROM kec_accounts;";
+    // The row value comparison is a range scan of idx_kec_accounts_balance
+    private static final String GET_RANK = "SELECT (SELECT COUNT(*) FROM kec_accounts o WHERE (o.balance, o.uuid) > (a.balance, a.uuid)) + 1 AS player_rank FROM kec_accounts a WHERE a.uuid = ?;";
+    private static final String GET_TOP_BALANCES = "SELECT uuid, balance FROM kec_accounts ORDER BY balance DESC, uuid DESC LIMIT ? OFFSET ?;";
+
+    public SqliteStorageProvider(KartaEmeraldCurrencyPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void initialize() {
+        ConfigurationSection config = plugin.getConfig().getConfigurationSection("storage.sqlite");
+        String fileName = config != null ? config.getString("file", "accounts.db") : "accounts.db";
+        String synchronous = config != null ? config.getString("synchronous", "NORMAL").toUpperCase(Locale.ROOT) : "NORMAL";
+        if (!synchronous.equals("NORMAL") && !synchronous.equals("FULL")) {
+            plugin.getLogger().warning("Invalid SQLite synchronous mode '" + synchronous + "' in config.yml. Defaulting to NORMAL.");
+            synchronous = "NORMAL";
+        }
+        int readPoolSize = Math.max(1, config != null ? config.getInt("read-pool-size", 4) : 4);
+        String url = "jdbc:sqlite:" + new File(plugin.getDataFolder(), fileName).getAbsolutePath();
+
+        // The writer opens the database first, so it is the one that switches it to WAL
+        HikariConfig writerConfig = createConfig(url, "KartaEmerald-SQLite-Writer", 1);
+        writerConfig.addDataSourceProperty("journal_mode", "WAL");
+        writerConfig.addDataSourceProperty("synchronous", synchronous);
+        // Takes the write lock when a transaction begins rather than on its first write
+        writerConfig.addDataSourceProperty("transaction_mode", "IMMEDIATE");
+        this.writer = new HikariDataSource(writerConfig);
+
+        HikariConfig readerConfig = createConfig(url, "KartaEmerald-SQLite-Reader", readPoolSize);
+        readerConfig.setConnectionInitSql("PRAGMA query_only = 1;");
+        this.readers = new HikariDataSource(readerConfig);
+
+        try (Connection conn = writer.getConnection();
+             Statement statement = conn.createStatement()) {
+            statement.execute(CREATE_TABLE);
+            statement.execute(CREATE_BALANCE_INDEX);
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to initialize SQLite database tables", e);
+        }
+    }
+
+    private static HikariConfig createConfig(String url, String poolName, int poolSize) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setDriverClassName("org.sqlite.JDBC");
+        config.setJdbcUrl(url);
+        config.setMaximumPoolSize(poolSize);
+        config.setMinimumIdle(poolSize);
+        // Connections to a local file don't go stale
+        config.setMaxLifetime(0);
+        config.addDataSourceProperty("busy_timeout", "10000");
+        return config;
+    }
+
+    @Override
+    public void shutdown() {
+        if (readers != null) {
+            readers.close();
+        }
+        // Closing the last connection checkpoints the WAL back into the database file
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    @Override
+    public Optional<PlayerData> getPlayerData(@NotNull UUID uuid) {
+        try (Connection conn = readers.getConnection();
+             PreparedStatement ps = conn.prepareStatement(GET_PLAYER)) {
+            ps.setString(1, uuid.toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(new PlayerData(rs.getLong("balance")));
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to get player data for " + uuid, e);
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public Map<UUID, Long> getBalances(@NotNull Collection<UUID> uuids) {
+        if (uuids.isEmpty()) {
+            return new HashMap<>();
+        }
+        try (Connection conn = readers.getConnection()) {
+            return readBalances(conn, new ArrayList<>(new LinkedHashSet<>(uuids)));
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to get balances for " + uuids.size() + " players", e);
+        }
+        return new HashMap<>();
+    }
+
+    @Override
+    public void savePlayerData(@NotNull UUID uuid, @NotNull PlayerData data) {
+        try (Connection conn = writer.getConnection();
+             PreparedStatement ps = conn.prepareStatement(SAVE_PLAYER)) {
+            ps.setString(1, uuid.toString());
+            ps.setLong(2, data.getBalance());
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to save player data for " + uuid, e);
+        }
+    }
+
+    @Override
+    public void savePlayerDataBatch(@NotNull Map<UUID, PlayerData> data) {
+        if (data.isEmpty()) {
+            return;
+        }
+        // One transaction, so the whole batch costs a single commit
+        try (Connection conn = writer.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement ps = conn.prepareStatement(SAVE_PLAYER)) {
+                for (Map.Entry<UUID, PlayerData> entry : data.entrySet()) {
+                    ps.setString(1, entry.getKey().toString());
+                    ps.setLong(2, entry.getValue().getBalance());
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to save data for " + data.size() + " players", e);
+        }
+    }
+
+    @Override
+    public boolean supportsAtomicDeltas() {
+        return true;
+    }
+
+    @Override
+    public long addBalance(@NotNull UUID uuid, long amount) {
+        try (Connection conn = writer.getConnection();
+             PreparedStatement ps = conn.prepareStatement(ADD_BALANCE)) {
+            ps.setString(1, uuid.toString());
+            ps.setLong(2, amount);
+            return readReturnedBalance(ps).orElseThrow();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to add balance for " + uuid, e);
+        }
+    }
+
+    @Override
+    public long removeBalance(@NotNull UUID uuid, long amount) {
+        try (Connection conn = writer.getConnection();
+             PreparedStatement ps = conn.prepareStatement(REMOVE_BALANCE)) {
+            ps.setLong(1, amount);
+            ps.setString(2, uuid.toString());
+            return readReturnedBalance(ps).orElse(0L); // No account, nothing to remove from
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to remove balance for " + uuid, e);
+        }
+    }
+
+    @Override
+    public OptionalLong withdrawBalance(@NotNull UUID uuid, long amount) {
+        try (Connection conn = writer.getConnection();
+             PreparedStatement ps = conn.prepareStatement(WITHDRAW_BALANCE)) {
+            ps.setLong(1, amount);
+            ps.setString(2, uuid.toString());
+            ps.setLong(3, amount);
+            return readReturnedBalance(ps); // Empty for a missing account or insufficient funds
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to withdraw balance for " + uuid, e);
+        }
+    }
+
+    @Override
+    public boolean transfer(@NotNull UUID from, @NotNull UUID to, long amount, long fee) {
+        // With a single writer there is nobody to deadlock with, so no retries are needed
+        try (Connection conn = writer.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement debit = conn.prepareStatement(DEBIT);
+                 PreparedStatement credit = conn.prepareStatement(CREDIT)) {
+                debit.setLong(1, amount + fee);
+                debit.setString(2, from.toString());
+                debit.setLong(3, amount + fee);
+                if (debit.executeUpdate() == 0) {
+                    conn.rollback();
+                    return false; // Insufficient funds
+                }
+
+                credit.setString(1, to.toString());
+                credit.setLong(2, amount);
+                credit.executeUpdate();
+                conn.commit();
+                return true;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to transfer " + amount + " from " + from + " to " + to, e);
+        }
+    }
+
+    /**
+     * Reads the affected accounts, applies the mutations in memory and writes every changed
+     * account back in a single JDBC batch, all within one transaction.
+     */
+    @Override
+    public List<OptionalLong> applyMutations(@NotNull List<BalanceMutation> mutations) {
+        MutationBatch batch = new MutationBatch(mutations);
+        try (Connection conn = writer.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<UUID> accounts = new ArrayList<>(batch.accounts());
+                Map<UUID, Long> current = readBalances(conn, accounts);
+
+                try (PreparedStatement ps = conn.prepareStatement(SAVE_PLAYER)) {
+                    for (UUID uuid : accounts) {
+                        Long balance = current.get(uuid);
+                        long newBalance = batch.apply(uuid, balance == null ? 0L : balance);
+                        if (balance == null ? batch.createsAccount(uuid) : newBalance != balance) {
+                            ps.setString(1, uuid.toString());
+                            ps.setLong(2, newBalance);
+                            ps.addBatch();
+                        }
+                    }
+                    ps.executeBatch();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            return batch.results();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to apply " + mutations.size() + " balance mutations", e);
+        }
+    }
+
+    /**
+     * Reads the balances of the given accounts with one {@code IN (...)} query per chunk.
+     */
+    private static Map<UUID, Long> readBalances(Connection conn, List<UUID> uuids) throws SQLException {
+        Map<UUID, Long> balances = new HashMap<>();
+        for (int from = 0; from < uuids.size(); from += IN_CLAUSE_CHUNK_SIZE) {
+            List<UUID> chunk = uuids.subList(from, Math.min(from + IN_CLAUSE_CHUNK_SIZE, uuids.size()));
+            String sql = "SELECT uuid, balance FROM kec_accounts WHERE uuid IN (" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ");";
+            try (PreparedStatement ps = conn.prepareStatement(sql)) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    ps.setString(i + 1, chunk.get(i).toString());
+                }
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        balances.put(UUID.fromString(rs.getString("uuid")), rs.getLong("balance"));
+                    }
+                }
+            }
+        }
+        return balances;
+    }
+
+    /**
+     * Runs a statement ending in {@code RETURNING balance}.
+     *
+     * @return The new balance, or empty if no row was changed.
+     */
+    private static OptionalLong readReturnedBalance(PreparedStatement ps) throws SQLException {
+        try (ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? OptionalLong.of(rs.getLong(1)) : OptionalLong.empty();
+        }
+    }
+
+    @Override
+    public void deletePlayerData(@NotNull UUID uuid) {
+        try (Connection conn = writer.getConnection();
+             PreparedStatement ps = conn.prepareStatement(DELETE_PLAYER)) {
+            ps.setString(1, uuid.toString());
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to delete player data for " + uuid, e);
+        }
+    }
+
+    @Override
+    public void forEachAccount(@NotNull ObjLongConsumer<UUID> action) {
+        // SQLite steps through the table as rows are read, and the read transaction sees one snapshot throughout
+        try (Connection conn = readers.getConnection();
+             PreparedStatement ps = conn.prepareStatement(GET_ALL_PLAYERS);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                action.accept(UUID.fromString(rs.getString("uuid")), rs.getLong("balance"));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to read all accounts", e);
+        }
+    }
+
+    @Override
+    public Map<UUID, Long> getTopBalances(int limit, int offset) {
+        Map<UUID, Long> topBalances = new LinkedHashMap<>();
+        try (Connection conn = readers.getConnection();
+             PreparedStatement ps = conn.prepareStatement(GET_TOP_BALANCES)) {
+            ps.setInt(1, limit);
+            ps.setInt(2, offset);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    topBalances.put(UUID.fromString(rs.getString("uuid")), rs.getLong("balance"));
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to get top balances", e);
+        }
+        return topBalances;
+    }
+
+    @Override
+    public int getRank(@NotNull UUID uuid) {
+        try (Connection conn = readers.getConnection();
+             PreparedStatement ps = conn.prepareStatement(GET_RANK)) {
+            ps.setString(1, uuid.toString());
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("player_rank");
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to get rank for " + uuid, e);
+        }
+        return 0;
+    }
+
+    @Override
+    public int getAccountCount() {
+        try (Connection conn = readers.getConnection();
+             PreparedStatement ps = conn.prepareStatement(COUNT_PLAYERS);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to count player accounts", e);
+            return 0;
+        }
+    }
+}
@@ -1,10 +1,22 @@
 package com.minekarta.kec.storage.provider;
 
+import com.minekarta.kec.api.BalanceMutation;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.PriorityQueue;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjLongConsumer;
 
 /**
  * An interface for a raw data storage provider.
@@ -28,6 +40,18 @@ public interface StorageProvider {
      */
     void shutdown();
 
+    /**
+     * Gets a future that completes once the provider holds the full dataset.
+     * Providers that load their data in the background serve single accounts right away,
+     * but {@link #forEachAccount}, {@link #getTopBalances}, {@link #getRank} and
+     * {@link #getAccountCount} block until this completes.
+     *
+     * @return A future that completes when the provider is fully loaded.
+     */
+    default CompletableFuture<Void> readiness() {
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Retrieves the data for a specific player.
      *
@@ -36,6 +60,21 @@ public interface StorageProvider {
      */
     Optional<PlayerData> getPlayerData(@NotNull UUID uuid);
 
+    /**
+     * Retrieves the balances of several players at once.
+     * Providers backed by a database should override this to fetch all entries in as few queries as possible.
+     *
+     * @param uuids The UUIDs of the players.
+     * @return A map of player UUIDs to their balances. Players without an account are left out.
+     */
+    default Map<UUID, Long> getBalances(@NotNull Collection<UUID> uuids) {
+        Map<UUID, Long> balances = new HashMap<>();
+        for (UUID uuid : uuids) {
+            getPlayerData(uuid).ifPresent(data -> balances.put(uuid, data.getBalance()));
+        }
+        return balances;
+    }
+
     /**
      * Saves or updates the data for a specific player.
      *
@@ -44,6 +83,118 @@ public interface StorageProvider {
      */
     void savePlayerData(@NotNull UUID uuid, @NotNull PlayerData data);
 
+    /**
+     * Saves or updates the data for several players at once.
+     * Providers backed by a database should override this to write all entries in a single batch.
+     *
+     * @param data A map of player UUIDs to the {@link PlayerData} to save.
+     */
+    default void savePlayerDataBatch(@NotNull Map<UUID, PlayerData> data) {
+        data.forEach(this::savePlayerData);
+    }
+
+    /**
+     * Checks whether this provider implements the balance delta operations atomically on its own.
+     * If it does, callers don't need to serialize access to an account before using them,
+     * which also makes them safe when several servers share the same storage.
+     *
+     * @return true if {@link #addBalance}, {@link #removeBalance} and {@link #withdrawBalance} are atomic.
+     */
+    default boolean supportsAtomicDeltas() {
+        return false;
+    }
+
+    /**
+     * Adds an amount to a player's balance, creating the account if it does not exist.
+     * The default implementation is a read-modify-write that must be externally synchronized.
+     *
+     * @param uuid The UUID of the player.
+     * @param amount The amount to add.
+     * @return The new balance.
+     */
+    default long addBalance(@NotNull UUID uuid, long amount) {
+        long newBalance = getPlayerData(uuid).map(PlayerData::getBalance).orElse(0L) + amount;
+        savePlayerData(uuid, new PlayerData(newBalance));
+        return newBalance;
+    }
+
+    /**
+     * Removes an amount from a player's balance. The balance will not go below zero.
+     * The default implementation is a read-modify-write that must be externally synchronized.
+     *
+     * @param uuid The UUID of the player.
+     * @param amount The amount to remove.
+     * @return The new balance.
+     */
+    default long removeBalance(@NotNull UUID uuid, long amount) {
+        long newBalance = Math.max(0, getPlayerData(uuid).map(PlayerData::getBalance).orElse(0L) - amount);
+        savePlayerData(uuid, new PlayerData(newBalance));
+        return newBalance;
+    }
+
+    /**
+     * Removes an amount from a player's balance, but only if the balance covers it.
+     * The default implementation is a read-modify-write that must be externally synchronized.
+     *
+     * @param uuid The UUID of the player.
+     * @param amount The amount to withdraw.
+     * @return An {@link OptionalLong} containing the new balance, or empty if the funds were insufficient.
+     */
+    default OptionalLong withdrawBalance(@NotNull UUID uuid, long amount) {
+        long currentBalance = getPlayerData(uuid).map(PlayerData::getBalance).orElse(0L);
+        if (currentBalance < amount) {
+            return OptionalLong.empty();
+        }
+        long newBalance = currentBalance - amount;
+        savePlayerData(uuid, new PlayerData(newBalance));
+        return OptionalLong.of(newBalance);
+    }
+
+    /**
+     * Moves an amount from one player's balance to another's, charging the sender an additional fee.
+     * The sender must be able to cover both the amount and the fee.
+     * The default implementation is built on the delta operations and, unless
+     * {@link #supportsAtomicDeltas()} is true, must be externally synchronized on both accounts.
+     *
+     * @param from The UUID of the sender.
+     * @param to The UUID of the receiver.
+     * @param amount The amount the receiver gets.
+     * @param fee The fee charged to the sender on top of the amount.
+     * @return true if the transfer was made, false if the sender's funds were insufficient.
+     */
+    default boolean transfer(@NotNull UUID from, @NotNull UUID to, long amount, long fee) {
+        if (withdrawBalance(from, amount + fee).isEmpty()) {
+            return false;
+        }
+        addBalance(to, amount);
+        return true;
+    }
+
+    /**
+     * Applies a list of balance mutations. Mutations are grouped by account, so every account
+     * is read and written once, and mutations of the same account are applied in list order.
+     * The default implementation reads each account, applies its mutations in memory and saves
+     * all changed accounts in one batch. Unless {@link #supportsAtomicDeltas()} is true, it must be
+     * externally synchronized on every account in the list.
+     *
+     * @param mutations The mutations to apply.
+     * @return The balance after each mutation, in list order, or empty where a withdrawal was refused.
+     */
+    default List<OptionalLong> applyMutations(@NotNull List<BalanceMutation> mutations) {
+        MutationBatch batch = new MutationBatch(mutations);
+        Map<UUID, PlayerData> changed = new HashMap<>();
+        for (UUID uuid : batch.accounts()) {
+            Optional<PlayerData> existing = getPlayerData(uuid);
+            long balance = existing.map(PlayerData::getBalance).orElse(0L);
+            long newBalance = batch.apply(uuid, balance);
+            if (newBalance != balance || (existing.isEmpty() && batch.createsAccount(uuid))) {
+                changed.put(uuid, new PlayerData(newBalance));
+            }
+        }
+        savePlayerDataBatch(changed);
+        return batch.results();
+    }
+
     /**
      * Deletes the data for a specific player.
      *
@@ -51,11 +202,120 @@ public interface StorageProvider {
      */
     void deletePlayerData(@NotNull UUID uuid);
 
+    /**
+     * Performs an action for every account in the storage, one at a time, without holding them all
+     * in memory. Accounts changed while the iteration runs may be reported with either balance.
+     * The action must not modify this storage.
+     * <p>
+     * If the storage can't be read to the end, this throws rather than returning early, so a
+     * truncated iteration is never mistaken for a complete one. The accounts passed to the action
+     * up to that point should then be discarded.
+     *
+     * @param action Receives the UUID and balance of each account.
+     * @throws RuntimeException If reading the storage fails.
+     */
+    void forEachAccount(@NotNull ObjLongConsumer<UUID> action);
+
     /**
      * Retrieves all player data from the storage.
-     * This can be an expensive operation and should be used with caution.
      *
      * @return A map of all player UUIDs to their {@link PlayerData}.
+     * @deprecated Holds every account in memory at once; use {@link #forEachAccount} instead.
+     */
+    @Deprecated
+    default Map<UUID, PlayerData> getAllPlayerData() {
+        Map<UUID, PlayerData> allData = new HashMap<>();
+        forEachAccount((uuid, balance) -> allData.put(uuid, new PlayerData(balance)));
+        return allData;
+    }
+
+    /**
+     * Retrieves a range of the highest balances, sorted in descending order.
+     * Accounts with equal balances are ordered by UUID, descending.
+     * The default implementation scans all accounts, keeping only the {@code offset + limit} highest;
+     * providers that can answer this from an index should override it.
+     *
+     * @param limit The maximum number of entries to return.
+     * @param offset The number of entries to skip (for pagination).
+     * @return An ordered map of player UUIDs to their balances, highest first.
+     */
+    default Map<UUID, Long> getTopBalances(int limit, int offset) {
+        Map<UUID, Long> topBalances = new LinkedHashMap<>();
+        long keep = (long) Math.max(0, offset) + Math.max(0, limit);
+        if (limit <= 0 || keep > Integer.MAX_VALUE) {
+            return topBalances;
+        }
+        Comparator<Map.Entry<UUID, Long>> order = Map.Entry.<UUID, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey());
+        // The lowest of the kept entries sits on top, ready to be replaced by a higher one
+        PriorityQueue<Map.Entry<UUID, Long>> highest = new PriorityQueue<>(order);
+        forEachAccount((uuid, balance) -> {
+            Map.Entry<UUID, Long> entry = Map.entry(uuid, balance);
+            if (highest.size() < keep) {
+                highest.add(entry);
+            } else if (order.compare(entry, highest.peek()) > 0) {
+                highest.poll();
+                highest.add(entry);
+            }
+        });
+        List<Map.Entry<UUID, Long>> sorted = new ArrayList<>(highest);
+        sorted.sort(order.reversed());
+        for (Map.Entry<UUID, Long> entry : sorted.subList(Math.min(Math.max(0, offset), sorted.size()), sorted.size())) {
+            topBalances.put(entry.getKey(), entry.getValue());
+        }
+        return topBalances;
+    }
+
+    /**
+     * Gets the 1-based leaderboard position of a player, using the same order as {@link #getTopBalances}.
+     * The default implementation scans all accounts.
+     *
+     * @param uuid The UUID of the player.
+     * @return The player's rank, or 0 if the player has no account.
+     */
+    default int getRank(@NotNull UUID uuid) {
+        Optional<PlayerData> own = getPlayerData(uuid);
+        if (own.isEmpty()) {
+            return 0;
+        }
+        long balance = own.get().getBalance();
+        AtomicInteger rank = new AtomicInteger(1);
+        forEachAccount((other, otherBalance) -> {
+            if (otherBalance > balance || (otherBalance == balance && other.compareTo(uuid) > 0)) {
+                rank.incrementAndGet();
+            }
+        });
+        return rank.get();
+    }
+
+    /**
+     * Gets the number of player accounts in the storage.
+     * The default implementation counts all accounts; providers should override it with a cheaper operation.
+     *
+     * @return The number of accounts.
+     */
+    default int getAccountCount() {
+        AtomicInteger count = new AtomicInteger();
+        forEachAccount((uuid, balance) -> count.incrementAndGet());
+        return count.get();
+    }
+
+    /**
+     * Notifies the provider that a player has joined the server.
+     * This is called on the main thread and must not block.
+     *
+     * @param uuid The UUID of the player.
+     */
+    default void handlePlayerJoin(@NotNull UUID uuid) {
+        // Nothing to do by default
+    }
+
+    /**
+     * Notifies the provider that a player has left the server.
+     * This is called on the main thread and must not block.
+     *
+     * @param uuid The UUID of the player.
      */
-    Map<UUID, PlayerData> getAllPlayerData();
+    default void handlePlayerQuit(@NotNull UUID uuid) {
+        // Nothing to do by default
+    }
 }
@@ -0,0 +1,148 @@
+package com.minekarta.kec.storage.provider;
+
+/**
+ * An open-addressing hash table from account UUIDs to record slots, using linear probing.
+ * Entries are stored inline as {@code [msb, lsb, slot + 1]} triples in a single array, so
+ * there are no per-entry objects and a lookup touches one or two cache lines.
+ * <p>
+ * Not thread-safe. A lookup only reads the current table array, so it never fails when run
+ * optimistically next to a writer; it may just return a stale answer that the caller must validate.
+ */
+final class UuidSlotIndex {
+
+    private static final int ENTRY_WIDTH = 3;
+
+    private long[] table;
+    private int size;
+
+    UuidSlotIndex(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        this.table = new long[capacity * ENTRY_WIDTH];
+    }
+
+    /**
+     * Looks up the slot of an account.
+     *
+     * @return The slot, or -1 if the account is not indexed.
+     */
+    int get(long msb, long lsb) {
+        long[] t = table;
+        int capacity = t.length / ENTRY_WIDTH;
+        int mask = capacity - 1;
+        int i = hash(msb, lsb) & mask;
+        for (int probes = 0; probes < capacity; probes++) {
+            int base = i * ENTRY_WIDTH;
+            long slot = t[base + 2];
+            if (slot == 0) {
+                return -1;
+            }
+            if (t[base] == msb && t[base + 1] == lsb) {
+                return (int) (slot - 1);
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds or replaces the slot of an account.
+     */
+    void put(long msb, long lsb, int slot) {
+        if ((size + 1) * 2 > table.length / ENTRY_WIDTH) {
+            resize();
+        }
+        if (insert(table, msb, lsb, slot)) {
+            size++;
+        }
+    }
+
+    /**
+     * Removes an account, shifting later entries of its probe sequence back so no tombstones are needed.
+     *
+     * @return true if the account was indexed.
+     */
+    boolean remove(long msb, long lsb) {
+        long[] t = table;
+        int mask = t.length / ENTRY_WIDTH - 1;
+        int i = hash(msb, lsb) & mask;
+        while (true) {
+            int base = i * ENTRY_WIDTH;
+            if (t[base + 2] == 0) {
+                return false;
+            }
+            if (t[base] == msb && t[base + 1] == lsb) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+
+        int hole = i;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            int base = j * ENTRY_WIDTH;
+            if (t[base + 2] == 0) {
+                break;
+            }
+            int home = hash(t[base], t[base + 1]) & mask;
+            // Move the entry into the hole unless its home lies cyclically between the hole and its position
+            boolean stays = hole <= j ? (hole < home && home <= j) : (hole < home || home <= j);
+            if (!stays) {
+                System.arraycopy(t, base, t, hole * ENTRY_WIDTH, ENTRY_WIDTH);
+                hole = j;
+            }
+        }
+        int base = hole * ENTRY_WIDTH;
+        t[base] = 0;
+        t[base + 1] = 0;
+        t[base + 2] = 0;
+        size--;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize() {
+        long[] old = table;
+        long[] grown = new long[old.length * 2];
+        for (int base = 0; base < old.length; base += ENTRY_WIDTH) {
+            if (old[base + 2] != 0) {
+                insert(grown, old[base], old[base + 1], (int) (old[base + 2] - 1));
+            }
+        }
+        // Publish the fully built table in one write
+        this.table = grown;
+    }
+
+    private static boolean insert(long[] t, long msb, long lsb, int slot) {
+        int mask = t.length / ENTRY_WIDTH - 1;
+        int i = hash(msb, lsb) & mask;
+        while (true) {
+            int base = i * ENTRY_WIDTH;
+            if (t[base + 2] == 0) {
+                t[base] = msb;
+                t[base + 1] = lsb;
+                t[base + 2] = slot + 1L;
+                return true;
+            }
+            if (t[base] == msb && t[base + 1] == lsb) {
+                t[base + 2] = slot + 1L;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ lsb;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
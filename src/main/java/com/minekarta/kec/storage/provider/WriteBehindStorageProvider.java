@@ -0,0 +1,335 @@
+package com.minekarta.kec.storage.provider;
+
+import com.minekarta.kec.KartaEmeraldCurrencyPlugin;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+import java.util.logging.Level;
+
+/**
+ * A write-behind cache in front of another {@link StorageProvider}.
+ * Balances of online players are kept in memory and treated as the source of truth.
+ * Modified entries are written back to the delegate in batches, either periodically
+ * or as soon as enough of them have accumulated.
+ */
+public class WriteBehindStorageProvider implements StorageProvider {
+
+    private final KartaEmeraldCurrencyPlugin plugin;
+    private final StorageProvider delegate;
+    private final Executor executor;
+    private final long flushIntervalTicks;
+    private final int maxDirtyEntries;
+    private final long rankIndexRefreshTicks;
+
+    private final Map<UUID, PlayerData> cache = new ConcurrentHashMap<>();
+    private final Set<UUID> dirtyPlayers = ConcurrentHashMap.newKeySet();
+    private final Set<UUID> onlinePlayers = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private volatile BalanceRankIndex rankIndex;
+    // Guards changes to the rank index against a rebuild publishing a new one
+    private final ReentrantLock rankIndexLock = new ReentrantLock();
+    // Async timers do not wait for the previous run, so a rebuild still running makes the next one skip
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    // Changes made while the rank index is rebuilt, replayed onto the new index; an empty balance is a deletion
+    private Map<UUID, OptionalLong> rebuildChanges;
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private BukkitTask flushTask;
+    private BukkitTask rankIndexTask;
+
+    /**
+     * Constructs a new WriteBehindStorageProvider.
+     * @param plugin The plugin instance.
+     * @param delegate The provider to write back to.
+     * @param executor The executor the first rank index build runs on.
+     * @param flushIntervalTicks How often dirty entries are flushed, in ticks.
+     * @param maxDirtyEntries How many dirty entries trigger an early flush.
+     * @param rankIndexRefreshTicks How often the in-memory rank index is rebuilt from the delegate,
+     *                              in ticks, or 0 to answer leaderboard queries from the delegate instead.
+     */
+    public WriteBehindStorageProvider(KartaEmeraldCurrencyPlugin plugin, StorageProvider delegate, Executor executor, long flushIntervalTicks, int maxDirtyEntries, long rankIndexRefreshTicks) {
+        this.plugin = plugin;
+        this.delegate = delegate;
+        this.executor = executor;
+        this.flushIntervalTicks = flushIntervalTicks;
+        this.maxDirtyEntries = maxDirtyEntries;
+        this.rankIndexRefreshTicks = rankIndexRefreshTicks;
+    }
+
+    @Override
+    public void initialize() {
+        delegate.initialize();
+        this.flushTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::flush, flushIntervalTicks, flushIntervalTicks);
+        if (rankIndexRefreshTicks > 0) {
+            // Scanning the whole table can take a while, so leaderboard queries wait for it off the main thread
+            executor.execute(() -> {
+                rebuildRankIndex();
+                ready.complete(null);
+            });
+            // Periodic rebuilds pick up changes made by other servers sharing the database
+            this.rankIndexTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::rebuildRankIndex, rankIndexRefreshTicks, rankIndexRefreshTicks);
+        } else {
+            ready.complete(null);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> readiness() {
+        return ready;
+    }
+
+    @Override
+    public void shutdown() {
+        if (flushTask != null) {
+            flushTask.cancel();
+        }
+        if (rankIndexTask != null) {
+            rankIndexTask.cancel();
+        }
+        flush(); // Flush synchronously on shutdown
+        delegate.shutdown();
+    }
+
+    @Override
+    public Optional<PlayerData> getPlayerData(@NotNull UUID uuid) {
+        PlayerData cached = cache.get(uuid);
+        if (cached != null) {
+            return Optional.of(new PlayerData(cached.getBalance()));
+        }
+        Optional<PlayerData> loaded = delegate.getPlayerData(uuid);
+        if (loaded.isPresent() && onlinePlayers.contains(uuid)) {
+            cache.putIfAbsent(uuid, new PlayerData(loaded.get().getBalance()));
+        }
+        return loaded;
+    }
+
+    @Override
+    public Map<UUID, Long> getBalances(@NotNull Collection<UUID> uuids) {
+        Map<UUID, Long> result = new HashMap<>();
+        List<UUID> misses = new ArrayList<>();
+        for (UUID uuid : uuids) {
+            PlayerData cached = cache.get(uuid);
+            if (cached != null) {
+                result.put(uuid, cached.getBalance());
+            } else {
+                misses.add(uuid);
+            }
+        }
+        if (!misses.isEmpty()) {
+            delegate.getBalances(misses).forEach((uuid, balance) -> {
+                result.put(uuid, balance);
+                if (onlinePlayers.contains(uuid)) {
+                    cache.putIfAbsent(uuid, new PlayerData(balance));
+                }
+            });
+        }
+        return result;
+    }
+
+    @Override
+    public void savePlayerData(@NotNull UUID uuid, @NotNull PlayerData data) {
+        PlayerData copy = new PlayerData(data.getBalance());
+        // Marking the entry dirty inside compute keeps it from being evicted before it is flushed
+        cache.compute(uuid, (key, old) -> {
+            dirtyPlayers.add(key);
+            return copy;
+        });
+        updateRankIndex(uuid, OptionalLong.of(copy.getBalance()));
+        if (dirtyPlayers.size() >= maxDirtyEntries) {
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void deletePlayerData(@NotNull UUID uuid) {
+        flushLock.lock();
+        try {
+            cache.remove(uuid);
+            dirtyPlayers.remove(uuid);
+            delegate.deletePlayerData(uuid);
+            updateRankIndex(uuid, OptionalLong.empty());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @Override
+    public void forEachAccount(@NotNull ObjLongConsumer<UUID> action) {
+        flush();
+        delegate.forEachAccount(action);
+    }
+
+    @Override
+    public Map<UUID, Long> getTopBalances(int limit, int offset) {
+        ready.join();
+        BalanceRankIndex index = rankIndex;
+        if (index != null) {
+            return index.getRange(limit, offset);
+        }
+        flush();
+        return delegate.getTopBalances(limit, offset);
+    }
+
+    @Override
+    public int getRank(@NotNull UUID uuid) {
+        ready.join();
+        BalanceRankIndex index = rankIndex;
+        if (index != null) {
+            return index.getRank(uuid);
+        }
+        flush();
+        return delegate.getRank(uuid);
+    }
+
+    @Override
+    public int getAccountCount() {
+        ready.join();
+        BalanceRankIndex index = rankIndex;
+        return index != null ? index.size() : delegate.getAccountCount();
+    }
+
+    @Override
+    public void handlePlayerJoin(@NotNull UUID uuid) {
+        onlinePlayers.add(uuid);
+        if (!cache.containsKey(uuid) && plugin.isEnabled()) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> getPlayerData(uuid));
+        }
+    }
+
+    @Override
+    public void handlePlayerQuit(@NotNull UUID uuid) {
+        onlinePlayers.remove(uuid);
+        if (dirtyPlayers.contains(uuid)) {
+            scheduleFlush();
+        } else {
+            cache.computeIfPresent(uuid, (key, data) -> dirtyPlayers.contains(key) ? data : null);
+        }
+    }
+
+    /**
+     * Writes all dirty entries to the delegate in a single batch and evicts
+     * entries of players who are no longer online.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            Map<UUID, PlayerData> batch = new HashMap<>();
+            for (Iterator<UUID> it = dirtyPlayers.iterator(); it.hasNext(); ) {
+                UUID uuid = it.next();
+                it.remove();
+                PlayerData data = cache.get(uuid);
+                if (data != null) {
+                    batch.put(uuid, new PlayerData(data.getBalance()));
+                }
+            }
+
+            if (!batch.isEmpty()) {
+                try {
+                    delegate.savePlayerDataBatch(batch);
+                } catch (RuntimeException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Failed to flush data for " + batch.size() + " players, will retry.", e);
+                    dirtyPlayers.addAll(batch.keySet());
+                    return;
+                }
+            }
+
+            for (UUID uuid : cache.keySet()) {
+                cache.computeIfPresent(uuid, (key, data) ->
+                        onlinePlayers.contains(key) || dirtyPlayers.contains(key) ? data : null);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void updateRankIndex(UUID uuid, OptionalLong balance) {
+        rankIndexLock.lock();
+        try {
+            BalanceRankIndex index = rankIndex;
+            if (index != null) {
+                applyRankChange(index, uuid, balance);
+            }
+            if (rebuildChanges != null) {
+                rebuildChanges.put(uuid, balance);
+            }
+        } finally {
+            rankIndexLock.unlock();
+        }
+    }
+
+    private static void applyRankChange(BalanceRankIndex index, UUID uuid, OptionalLong balance) {
+        if (balance.isPresent()) {
+            index.update(uuid, balance.getAsLong());
+        } else {
+            index.remove(uuid);
+        }
+    }
+
+    private void rebuildRankIndex() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        Map<UUID, OptionalLong> changes = new HashMap<>();
+        rankIndexLock.lock();
+        try {
+            this.rebuildChanges = changes;
+        } finally {
+            rankIndexLock.unlock();
+        }
+        BalanceRankIndex rebuilt = null;
+        try {
+            flush();
+            Map<UUID, Long> balances = new HashMap<>();
+            delegate.forEachAccount(balances::put);
+            // Cached entries are authoritative for online players
+            cache.forEach((uuid, data) -> balances.put(uuid, data.getBalance()));
+            rebuilt = BalanceRankIndex.build(balances);
+        } catch (RuntimeException e) {
+            plugin.getLogger().log(Level.SEVERE, "Failed to rebuild the leaderboard index, keeping the current one", e);
+        } finally {
+            rankIndexLock.lock();
+            try {
+                if (rebuilt != null) {
+                    // The snapshot may predate these changes, which the old index already has
+                    BalanceRankIndex index = rebuilt;
+                    changes.forEach((uuid, balance) -> applyRankChange(index, uuid, balance));
+                    this.rankIndex = rebuilt;
+                }
+                this.rebuildChanges = null;
+            } finally {
+                rankIndexLock.unlock();
+                rebuilding.set(false);
+            }
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!plugin.isEnabled()) {
+            return; // The shutdown flush will pick these entries up
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.minekarta.kec.storage;
+
+import com.minekarta.kec.storage.provider.InMemoryStorageProvider;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AccountMutationQueuesTest {
+
+    private final InMemoryStorageProvider provider = new InMemoryStorageProvider();
+    // Runs queued drains only when the test asks, so it controls what is waiting in a queue
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final List<LogRecord> logged = new ArrayList<>();
+    private final AccountMutationQueues queues = new AccountMutationQueues(() -> provider, tasks::add, createLogger(), 4);
+
+    @Test
+    void coalescesConsecutiveDepositsIntoOneWrite() {
+        UUID account = UUID.randomUUID();
+        provider.balances.put(account, 100L);
+        CompletableFuture<Long> first = queues.add(account, 5);
+        CompletableFuture<Long> second = queues.add(account, 7);
+        CompletableFuture<Long> third = queues.add(account, 3);
+        assertEquals(3, queues.getQueuedCount());
+
+        runAll();
+        assertEquals(105L, first.join());
+        assertEquals(112L, second.join());
+        assertEquals(115L, third.join());
+        assertEquals(1, provider.addCalls.get());
+        assertEquals(115L, provider.balances.get(account));
+        assertEquals(0, queues.getQueuedCount());
+    }
+
+    @Test
+    void otherMutationsBreakCoalescingAndKeepOrder() {
+        UUID account = UUID.randomUUID();
+        CompletableFuture<Long> deposit = queues.add(account, 10);
+        CompletableFuture<OptionalLong> refused = queues.withdraw(account, 50);
+        CompletableFuture<OptionalLong> withdrawn = queues.withdraw(account, 4);
+        CompletableFuture<Long> laterDeposit = queues.add(account, 1);
+        CompletableFuture<Long> removed = queues.remove(account, 100);
+        CompletableFuture<Void> set = queues.set(account, 42);
+
+        runAll();
+        assertEquals(10L, deposit.join());
+        assertEquals(OptionalLong.empty(), refused.join());
+        assertEquals(OptionalLong.of(6), withdrawn.join());
+        assertEquals(7L, laterDeposit.join());
+        assertEquals(0L, removed.join());
+        set.join();
+        assertEquals(42L, provider.balances.get(account));
+        assertEquals(2, provider.addCalls.get());
+    }
+
+    @Test
+    void failedCoalescedWriteFailsEveryCaller() {
+        UUID account = UUID.randomUUID();
+        provider.failingAdds.add(account);
+        CompletableFuture<Long> first = queues.add(account, 1);
+        CompletableFuture<Long> second = queues.add(account, 2);
+
+        runAll();
+        assertInstanceOf(IllegalStateException.class, assertThrows(CompletionException.class, first::join).getCause());
+        assertInstanceOf(IllegalStateException.class, assertThrows(CompletionException.class, second::join).getCause());
+    }
+
+    @Test
+    void transferMovesFundsOrRefusesThem() {
+        UUID from = UUID.randomUUID();
+        UUID to = UUID.randomUUID();
+        provider.balances.put(from, 100L);
+        CompletableFuture<Boolean> made = queues.transfer(from, to, 30, 5);
+        CompletableFuture<Boolean> refused = queues.transfer(from, to, 70, 0);
+
+        runAll();
+        assertTrue(made.join());
+        assertFalse(refused.join());
+        assertEquals(65L, provider.balances.get(from));
+        assertEquals(30L, provider.balances.get(to));
+    }
+
+    @Test
+    void failedCreditCompletesOnlyAfterRefund() {
+        UUID from = UUID.randomUUID();
+        UUID to = UUID.randomUUID();
+        AtomicReference<CompletableFuture<Boolean>> transfer = new AtomicReference<>();
+        AtomicBoolean doneBeforeRefund = new AtomicBoolean();
+        InMemoryStorageProvider refunding = new InMemoryStorageProvider() {
+            @Override
+            public long addBalance(@NotNull UUID uuid, long amount) {
+                if (uuid.equals(from)) {
+                    doneBeforeRefund.set(transfer.get().isDone());
+                }
+                return super.addBalance(uuid, amount);
+            }
+        };
+        refunding.balances.put(from, 100L);
+        refunding.failingAdds.add(to);
+        AccountMutationQueues queues = new AccountMutationQueues(() -> refunding, tasks::add, createLogger(), 4);
+        transfer.set(queues.transfer(from, to, 30, 5));
+
+        runAll();
+        assertFalse(doneBeforeRefund.get());
+        assertEquals(100L, refunding.balances.get(from));
+        CompletionException error = assertThrows(CompletionException.class, transfer.get()::join);
+        assertInstanceOf(IllegalStateException.class, error.getCause());
+        assertTrue(error.getCause().getMessage().contains(to.toString()));
+        assertTrue(logged.isEmpty());
+    }
+
+    @Test
+    void failedRefundIsLoggedAndFailsTransfer() {
+        UUID from = UUID.randomUUID();
+        UUID to = UUID.randomUUID();
+        provider.balances.put(from, 100L);
+        provider.failingAdds.add(to);
+        provider.failingAdds.add(from);
+        CompletableFuture<Boolean> transfer = queues.transfer(from, to, 30, 5);
+
+        runAll();
+        assertEquals(65L, provider.balances.get(from));
+        CompletionException error = assertThrows(CompletionException.class, transfer::join);
+        assertTrue(error.getCause().getMessage().contains(from.toString()));
+        assertEquals(1, error.getCause().getSuppressed().length);
+        assertEquals(1, logged.size());
+        assertEquals(Level.SEVERE, logged.get(0).getLevel());
+        assertTrue(logged.get(0).getMessage().contains("35") && logged.get(0).getMessage().contains(from.toString()));
+    }
+
+    @Test
+    void rejectedDrainFailsQueuedMutations() {
+        AccountMutationQueues rejecting = new AccountMutationQueues(() -> provider, task -> {
+            throw new RejectedExecutionException("shut down");
+        }, createLogger(), 1);
+        CompletableFuture<Long> deposit = rejecting.add(UUID.randomUUID(), 1);
+        assertInstanceOf(RejectedExecutionException.class, assertThrows(CompletionException.class, deposit::join).getCause());
+        assertEquals(0, rejecting.getQueuedCount());
+    }
+
+    @Test
+    void concurrentDepositsAreNeverLost() throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        AccountMutationQueues concurrent = new AccountMutationQueues(() -> provider, workers, createLogger(), 2);
+        List<UUID> accounts = List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID());
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        List<CompletableFuture<Long>> results = new ArrayList<>();
+        for (int i = 0; i < 30_000; i++) {
+            UUID account = accounts.get(i % accounts.size());
+            CompletableFuture<Long> result = new CompletableFuture<>();
+            results.add(result);
+            callers.execute(() -> concurrent.add(account, 1).whenComplete((balance, error) -> {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(balance);
+                }
+            }));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+        callers.shutdown();
+        workers.shutdown();
+        assertTrue(workers.awaitTermination(10, TimeUnit.SECONDS));
+
+        for (UUID account : accounts) {
+            assertEquals(10_000L, provider.balances.get(account));
+        }
+        // Each caller saw a distinct balance of its account
+        assertEquals(30_000, results.stream().map(CompletableFuture::join).distinct().count() * accounts.size());
+    }
+
+    private void runAll() {
+        while (!tasks.isEmpty()) {
+            tasks.remove().run();
+        }
+    }
+
+    private Logger createLogger() {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                logged.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        return logger;
+    }
+}
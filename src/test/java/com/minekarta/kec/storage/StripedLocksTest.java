@@ -0,0 +1,160 @@
+package com.minekarta.kec.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripedLocksTest {
+
+    @Test
+    void stripeCountIsRoundedToPowerOfTwo() {
+        assertEquals(1, new StripedLocks(0).getStripeCount());
+        assertEquals(1, new StripedLocks(1).getStripeCount());
+        assertEquals(4, new StripedLocks(3).getStripeCount());
+        assertEquals(16, new StripedLocks(16).getStripeCount());
+        assertEquals(1 << 16, new StripedLocks(Integer.MAX_VALUE).getStripeCount());
+    }
+
+    /**
+     * Threads lock random sets of accounts, given in random order, and do unsynchronized
+     * read-modify-writes on them. Lost updates mean a missing lock, a hang means a lock-order deadlock.
+     */
+    @Test
+    void multiKeyLocksExcludeEachOtherWithoutDeadlock() {
+        StripedLocks locks = new StripedLocks(8);
+        List<UUID> accounts = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            accounts.add(UUID.randomUUID());
+        }
+        long[] counters = new long[accounts.size()];
+        int threads = 8;
+        int iterations = 20_000;
+
+        long expected = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Long>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    long seed = t;
+                    futures.add(executor.submit(() -> {
+                        Random random = new Random(seed);
+                        long increments = 0;
+                        for (int i = 0; i < iterations; i++) {
+                            List<Integer> picked = new ArrayList<>();
+                            for (int k = 1 + random.nextInt(4); k > 0; k--) {
+                                picked.add(random.nextInt(accounts.size()));
+                            }
+                            Collections.shuffle(picked, random);
+                            List<Integer> distinct = picked.stream().distinct().toList();
+                            if (distinct.size() == 2 && random.nextBoolean()) {
+                                locks.withLocks(accounts.get(distinct.get(0)), accounts.get(distinct.get(1)), () -> increment(counters, distinct));
+                            } else {
+                                locks.withLocks(distinct.stream().map(accounts::get).toList(), () -> increment(counters, distinct));
+                            }
+                            increments += distinct.size();
+                        }
+                        return increments;
+                    }));
+                }
+                long sum = 0;
+                for (Future<Long> future : futures) {
+                    sum += future.get();
+                }
+                return sum;
+            } finally {
+                executor.shutdownNow();
+            }
+        });
+
+        long total = 0;
+        for (long counter : counters) {
+            total += counter;
+        }
+        assertEquals(expected, total);
+    }
+
+    @Test
+    void singleAndMultiKeyLocksShareStripes() throws InterruptedException {
+        StripedLocks locks = new StripedLocks(4);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = Thread.ofPlatform().start(() -> locks.withLocks(List.of(first, second), () -> {
+            held.countDown();
+            awaitQuietly(release);
+            return null;
+        }));
+        held.await();
+
+        AtomicBoolean entered = new AtomicBoolean();
+        Thread waiter = Thread.ofPlatform().start(() -> locks.withLock(second, () -> {
+            entered.set(true);
+            return null;
+        }));
+        waiter.join(200);
+        assertFalse(entered.get());
+
+        release.countDown();
+        waiter.join(5000);
+        holder.join(5000);
+        assertTrue(entered.get());
+    }
+
+    @Test
+    void duplicateKeysAndExceptionsReleaseEveryStripe() throws InterruptedException {
+        StripedLocks locks = new StripedLocks(2);
+        UUID account = UUID.randomUUID();
+        assertEquals(1, (int) locks.withLocks(List.of(account, account, account), () -> 1));
+        assertThrows(IllegalStateException.class, () -> locks.withLocks(List.of(account, UUID.randomUUID()), () -> {
+            throw new IllegalStateException("boom");
+        }));
+
+        // Another thread can take every stripe afterwards
+        AtomicBoolean entered = new AtomicBoolean();
+        List<UUID> all = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            all.add(UUID.randomUUID());
+        }
+        Thread other = Thread.ofPlatform().start(() -> locks.withLocks(all, () -> {
+            entered.set(true);
+            return null;
+        }));
+        other.join(5000);
+        assertTrue(entered.get());
+    }
+
+    private static Void increment(long[] counters, List<Integer> indexes) {
+        for (int index : indexes) {
+            long value = counters[index];
+            Thread.onSpinWait();
+            counters[index] = value + 1;
+        }
+        return null;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.minekarta.kec.storage.provider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BalanceIndexFileTest {
+
+    // Highest balance first, ties broken by UUID descending
+    private static final Comparator<Map.Entry<UUID, Long>> ORDER =
+            Map.Entry.<UUID, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey()).reversed();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void createdIndexMatchesSortedModel() throws IOException {
+        Random random = new Random(6);
+        Map<UUID, Long> model = randomBalances(random, 10_000);
+        BalanceIndexFile index = BalanceIndexFile.create(directory.resolve("index.dat"), model);
+        try {
+            assertMatches(model, index, random);
+        } finally {
+            index.close(true);
+        }
+    }
+
+    @Test
+    void mergesMatchSortedModel() throws IOException {
+        Random random = new Random(7);
+        Map<UUID, Long> model = randomBalances(random, 2000);
+        List<UUID> known = new ArrayList<>(model.keySet());
+        BalanceIndexFile index = BalanceIndexFile.create(directory.resolve("index.dat"), model);
+        try {
+            for (int round = 0; round < 20; round++) {
+                Map<UUID, OptionalLong> changes = new HashMap<>();
+                for (int i = 0; i < 200; i++) {
+                    int op = random.nextInt(3);
+                    UUID uuid = op == 0 ? new UUID(random.nextLong(), random.nextLong()) : known.get(random.nextInt(known.size()));
+                    if (op == 0) {
+                        known.add(uuid);
+                    }
+                    if (op == 1) {
+                        model.remove(uuid);
+                        changes.put(uuid, OptionalLong.empty());
+                    } else {
+                        long balance = random.nextInt(500);
+                        model.put(uuid, balance);
+                        changes.put(uuid, OptionalLong.of(balance));
+                    }
+                }
+                index.merge(changes);
+                assertMatches(model, index, random);
+            }
+        } finally {
+            index.close(true);
+        }
+    }
+
+    @Test
+    void onlyCleanIndexesAreReopened() throws IOException {
+        Path path = directory.resolve("index.dat");
+        Map<UUID, Long> model = randomBalances(new Random(8), 100);
+
+        BalanceIndexFile.create(path, model).close(false);
+        assertNull(BalanceIndexFile.openIfClean(path));
+
+        BalanceIndexFile.create(path, model).close(true);
+        BalanceIndexFile reopened = BalanceIndexFile.openIfClean(path);
+        assertNotNull(reopened);
+        try {
+            assertEquals(model.size(), reopened.size());
+            // Reopening marks the index as in use until it is closed cleanly again
+            assertNull(BalanceIndexFile.openIfClean(path));
+        } finally {
+            reopened.close(true);
+        }
+        assertNull(BalanceIndexFile.openIfClean(directory.resolve("missing.dat")));
+    }
+
+    @Test
+    void closingTwiceKeepsTheFirstState() throws IOException {
+        Path path = directory.resolve("index.dat");
+        BalanceIndexFile index = BalanceIndexFile.create(path, randomBalances(new Random(9), 10));
+        index.close(false);
+        index.close(true);
+        assertNull(BalanceIndexFile.openIfClean(path));
+    }
+
+    private static void assertMatches(Map<UUID, Long> model, BalanceIndexFile index, Random random) throws IOException {
+        List<Map.Entry<UUID, Long>> sorted = new ArrayList<>(model.entrySet());
+        sorted.sort(ORDER);
+        assertEquals(sorted.size(), index.size());
+        for (int i = 0; i < 200; i++) {
+            int rank = random.nextInt(sorted.size());
+            Map.Entry<UUID, Long> entry = sorted.get(rank);
+            assertEquals(rank + 1, index.getRank(entry.getKey(), entry.getValue()));
+        }
+        for (int page = 0; page < 20; page++) {
+            int offset = random.nextInt(sorted.size() + 10);
+            int limit = 1 + random.nextInt(100);
+            List<Map.Entry<UUID, Long>> expected = sorted.subList(Math.min(offset, sorted.size()), Math.min(offset + limit, sorted.size()));
+            assertEquals(expected, new ArrayList<>(index.getRange(limit, offset).entrySet()));
+        }
+        Map<UUID, Long> all = new LinkedHashMap<>();
+        index.forEach(all::put);
+        assertEquals(sorted, new ArrayList<>(all.entrySet()));
+        assertTrue(index.getRange(10, sorted.size()).isEmpty());
+    }
+
+    private static Map<UUID, Long> randomBalances(Random random, int count) {
+        Map<UUID, Long> balances = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            // Few distinct balances, so ties are common
+            balances.put(new UUID(random.nextLong(), random.nextLong()), (long) random.nextInt(500));
+        }
+        return balances;
+    }
+}
@@ -0,0 +1,161 @@
+package com.minekarta.kec.storage.provider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BalanceJournalTest {
+
+    // A record is an 8-byte header followed by a 25-byte payload
+    private static final int RECORD_SIZE = 33;
+
+    private static final Logger LOGGER = Logger.getLogger(BalanceJournalTest.class.getName());
+
+    @TempDir
+    Path directory;
+
+    private final Map<UUID, Long> balances = new HashMap<>();
+
+    private BalanceJournal createJournal() {
+        return new BalanceJournal(directory, LOGGER, false, uuid -> {
+            Long balance = balances.get(uuid);
+            return balance != null ? OptionalLong.of(balance) : OptionalLong.empty();
+        });
+    }
+
+    @Test
+    void replaysChangesInOrder() throws IOException {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        BalanceJournal journal = createJournal();
+        assertTrue(journal.open().isEmpty());
+        change(journal, first, 10L);
+        change(journal, second, 20L);
+        change(journal, first, 15L);
+        change(journal, second, null);
+        journal.close();
+
+        assertEquals(List.of(
+                new BalanceJournal.Entry(first, OptionalLong.of(10)),
+                new BalanceJournal.Entry(second, OptionalLong.of(20)),
+                new BalanceJournal.Entry(first, OptionalLong.of(15)),
+                new BalanceJournal.Entry(second, OptionalLong.empty())
+        ), createJournal().open());
+    }
+
+    @Test
+    void batchAppendWritesEveryAccountInOrder() throws IOException {
+        UUID from = UUID.randomUUID();
+        UUID to = UUID.randomUUID();
+        BalanceJournal journal = createJournal();
+        journal.open();
+        balances.put(from, 70L);
+        balances.put(to, 30L);
+        journal.append(List.of(from, to));
+        journal.append(List.of());
+        // More records than the initial buffer holds
+        List<UUID> many = Stream.generate(UUID::randomUUID).limit(200).toList();
+        many.forEach(uuid -> balances.put(uuid, 1L));
+        journal.append(many);
+        journal.close();
+
+        List<BalanceJournal.Entry> entries = createJournal().open();
+        assertEquals(202, entries.size());
+        assertEquals(new BalanceJournal.Entry(from, OptionalLong.of(70)), entries.get(0));
+        assertEquals(new BalanceJournal.Entry(to, OptionalLong.of(30)), entries.get(1));
+        assertEquals(many, entries.subList(2, 202).stream().map(BalanceJournal.Entry::uuid).toList());
+    }
+
+    @Test
+    void ignoresTornLastRecord() throws IOException {
+        List<UUID> accounts = writeRecords(5);
+        Path segment = onlySegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(segment) - 10);
+        }
+
+        List<BalanceJournal.Entry> entries = BalanceJournal.read(directory, LOGGER);
+        assertEquals(4, entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(new BalanceJournal.Entry(accounts.get(i), OptionalLong.of(i)), entries.get(i));
+        }
+    }
+
+    @Test
+    void stopsAtRecordWithBadChecksum() throws IOException {
+        List<UUID> accounts = writeRecords(5);
+        Path segment = onlySegment();
+        byte[] content = Files.readAllBytes(segment);
+        content[2 * RECORD_SIZE + 20] ^= 1; // Inside the payload of the third record
+        Files.write(segment, content);
+
+        List<BalanceJournal.Entry> entries = BalanceJournal.read(directory, LOGGER);
+        assertEquals(List.of(
+                new BalanceJournal.Entry(accounts.get(0), OptionalLong.of(0)),
+                new BalanceJournal.Entry(accounts.get(1), OptionalLong.of(1))
+        ), entries);
+    }
+
+    @Test
+    void checkpointDeletesCoveredSegmentsOnlyAfterSnapshot() throws IOException {
+        UUID account = UUID.randomUUID();
+        BalanceJournal journal = createJournal();
+        journal.open();
+        change(journal, account, 5L);
+
+        assertFalse(journal.checkpoint(() -> false));
+        assertEquals(1, BalanceJournal.read(directory, LOGGER).size());
+
+        change(journal, account, 6L);
+        assertTrue(journal.checkpoint(() -> true));
+        assertTrue(BalanceJournal.read(directory, LOGGER).isEmpty());
+
+        change(journal, account, 7L);
+        journal.close();
+        assertEquals(List.of(new BalanceJournal.Entry(account, OptionalLong.of(7))), BalanceJournal.read(directory, LOGGER));
+    }
+
+    private List<UUID> writeRecords(int count) throws IOException {
+        BalanceJournal journal = createJournal();
+        journal.open();
+        List<UUID> accounts = Stream.generate(UUID::randomUUID).limit(count).toList();
+        for (int i = 0; i < count; i++) {
+            change(journal, accounts.get(i), (long) i);
+        }
+        journal.close();
+        return accounts;
+    }
+
+    private void change(BalanceJournal journal, UUID uuid, Long balance) {
+        if (balance != null) {
+            balances.put(uuid, balance);
+        } else {
+            balances.remove(uuid);
+        }
+        journal.append(uuid);
+    }
+
+    private Path onlySegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = files.filter(path -> Files.isRegularFile(path)).toList();
+            assertEquals(1, segments.size());
+            return segments.get(0);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.minekarta.kec.storage.provider;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BalanceRankIndexTest {
+
+    // Highest balance first, ties broken by UUID descending
+    private static final Comparator<Map.Entry<UUID, Long>> ORDER =
+            Map.Entry.<UUID, Long>comparingByValue().thenComparing(Map.Entry.comparingByKey()).reversed();
+
+    @Test
+    void emptyIndex() {
+        BalanceRankIndex index = new BalanceRankIndex();
+        assertEquals(0, index.size());
+        assertEquals(0, index.getRank(UUID.randomUUID()));
+        assertTrue(index.getRange(10, 0).isEmpty());
+    }
+
+    @Test
+    void builtIndexMatchesSortedModel() {
+        Random random = new Random(1);
+        Map<UUID, Long> model = randomBalances(random, 5000);
+        assertMatches(model, BalanceRankIndex.build(model), random);
+    }
+
+    @Test
+    void updatesMatchSortedModel() {
+        Random random = new Random(2);
+        Map<UUID, Long> model = randomBalances(random, 1000);
+        BalanceRankIndex index = BalanceRankIndex.build(model);
+        List<UUID> known = new ArrayList<>(model.keySet());
+        for (int i = 0; i < 20_000; i++) {
+            int op = random.nextInt(10);
+            if (op < 2) {
+                UUID uuid = randomUuid(random);
+                long balance = randomBalance(random);
+                model.put(uuid, balance);
+                known.add(uuid);
+                index.update(uuid, balance);
+            } else if (op < 4) {
+                UUID uuid = known.get(random.nextInt(known.size()));
+                model.remove(uuid);
+                index.remove(uuid);
+            } else {
+                UUID uuid = known.get(random.nextInt(known.size()));
+                long balance = randomBalance(random);
+                model.put(uuid, balance);
+                index.update(uuid, balance);
+            }
+            if (i % 2000 == 0) {
+                assertMatches(model, index, random);
+            }
+        }
+        assertMatches(model, index, random);
+    }
+
+    @Test
+    void tiesAreBrokenByUuid() {
+        UUID low = new UUID(0, 1);
+        UUID high = new UUID(0, 2);
+        BalanceRankIndex index = new BalanceRankIndex();
+        index.update(low, 100);
+        index.update(high, 100);
+        assertEquals(1, index.getRank(high));
+        assertEquals(2, index.getRank(low));
+        assertEquals(List.of(high, low), new ArrayList<>(index.getRange(2, 0).keySet()));
+    }
+
+    @Test
+    void rangeOutsideTheIndexIsEmpty() {
+        Map<UUID, Long> model = randomBalances(new Random(3), 10);
+        BalanceRankIndex index = BalanceRankIndex.build(model);
+        assertTrue(index.getRange(5, 10).isEmpty());
+        assertTrue(index.getRange(0, 0).isEmpty());
+        assertEquals(3, index.getRange(5, 7).size());
+        assertEquals(sorted(model).subList(0, 2), new ArrayList<>(index.getRange(2, -4).entrySet()));
+    }
+
+    private static void assertMatches(Map<UUID, Long> model, BalanceRankIndex index, Random random) {
+        List<Map.Entry<UUID, Long>> sorted = sorted(model);
+        assertEquals(sorted.size(), index.size());
+        for (int rank = 0; rank < sorted.size(); rank++) {
+            assertEquals(rank + 1, index.getRank(sorted.get(rank).getKey()));
+        }
+        for (int page = 0; page < 20; page++) {
+            int offset = random.nextInt(sorted.size() + 10);
+            int limit = 1 + random.nextInt(50);
+            List<Map.Entry<UUID, Long>> expected = sorted.subList(Math.min(offset, sorted.size()), Math.min(offset + limit, sorted.size()));
+            assertEquals(expected, new ArrayList<>(index.getRange(limit, offset).entrySet()));
+        }
+    }
+
+    private static List<Map.Entry<UUID, Long>> sorted(Map<UUID, Long> model) {
+        List<Map.Entry<UUID, Long>> sorted = new ArrayList<>(model.entrySet());
+        sorted.sort(ORDER);
+        return sorted;
+    }
+
+    private static Map<UUID, Long> randomBalances(Random random, int count) {
+        Map<UUID, Long> balances = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            balances.put(randomUuid(random), randomBalance(random));
+        }
+        return balances;
+    }
+
+    // Few distinct balances, so ties are common
+    private static long randomBalance(Random random) {
+        return random.nextInt(200);
+    }
+
+    private static UUID randomUuid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong());
+    }
+}
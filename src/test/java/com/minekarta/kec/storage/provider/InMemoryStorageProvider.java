@@ -0,0 +1,67 @@
+package com.minekarta.kec.storage.provider;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * A storage provider backed by a map, relying on the interface's default read-modify-write
+ * operations. Counts calls and can be told to fail additions to chosen accounts.
+ */
+public class InMemoryStorageProvider implements StorageProvider {
+
+    public final Map<UUID, Long> balances = new ConcurrentHashMap<>();
+    public final Set<UUID> failingAdds = ConcurrentHashMap.newKeySet();
+    public final AtomicInteger addCalls = new AtomicInteger();
+    public final AtomicInteger batchSaves = new AtomicInteger();
+
+    @Override
+    public void initialize() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public Optional<PlayerData> getPlayerData(@NotNull UUID uuid) {
+        Long balance = balances.get(uuid);
+        return balance == null ? Optional.empty() : Optional.of(new PlayerData(balance));
+    }
+
+    @Override
+    public void savePlayerData(@NotNull UUID uuid, @NotNull PlayerData data) {
+        balances.put(uuid, data.getBalance());
+    }
+
+    @Override
+    public void savePlayerDataBatch(@NotNull Map<UUID, PlayerData> data) {
+        batchSaves.incrementAndGet();
+        StorageProvider.super.savePlayerDataBatch(data);
+    }
+
+    @Override
+    public long addBalance(@NotNull UUID uuid, long amount) {
+        addCalls.incrementAndGet();
+        if (failingAdds.contains(uuid)) {
+            throw new IllegalStateException("Failed to add to " + uuid);
+        }
+        return StorageProvider.super.addBalance(uuid, amount);
+    }
+
+    @Override
+    public void deletePlayerData(@NotNull UUID uuid) {
+        balances.remove(uuid);
+    }
+
+    @Override
+    public void forEachAccount(@NotNull ObjLongConsumer<UUID> action) {
+        balances.forEach(action::accept);
+    }
+}
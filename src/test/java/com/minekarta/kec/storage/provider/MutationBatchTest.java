@@ -0,0 +1,92 @@
+package com.minekarta.kec.storage.provider;
+
+import com.minekarta.kec.api.BalanceMutation;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MutationBatchTest {
+
+    private final UUID first = new UUID(0, 1);
+    private final UUID second = new UUID(0, 2);
+
+    @Test
+    void resultsFollowListOrderAcrossAccounts() {
+        MutationBatch batch = new MutationBatch(List.of(
+                BalanceMutation.deposit(first, 10),
+                BalanceMutation.withdraw(second, 5),
+                BalanceMutation.withdraw(first, 15),
+                BalanceMutation.withdraw(first, 4),
+                BalanceMutation.remove(second, 100),
+                BalanceMutation.deposit(first, 1)
+        ));
+        assertEquals(List.of(first, second), List.copyOf(batch.accounts()));
+
+        assertEquals(7, batch.apply(first, 0));
+        assertEquals(0, batch.apply(second, 20));
+        assertEquals(List.of(
+                OptionalLong.of(10),
+                OptionalLong.of(15),
+                OptionalLong.empty(), // Refused; the balance is left as it was
+                OptionalLong.of(6),
+                OptionalLong.of(0), // Clamped at zero
+                OptionalLong.of(7)
+        ), batch.results());
+    }
+
+    @Test
+    void applyingAgainReplacesEarlierResults() {
+        MutationBatch batch = new MutationBatch(List.of(
+                BalanceMutation.withdraw(first, 50),
+                BalanceMutation.deposit(first, 5)
+        ));
+        // A compare-and-set lost to a concurrent change is retried with the newer balance
+        assertEquals(55, batch.apply(first, 100));
+        assertEquals(List.of(OptionalLong.of(50), OptionalLong.of(55)), batch.results());
+        assertEquals(45, batch.apply(first, 40));
+        assertEquals(List.of(OptionalLong.empty(), OptionalLong.of(45)), batch.results());
+        assertEquals(45, batch.apply(first, 40));
+        assertEquals(List.of(OptionalLong.empty(), OptionalLong.of(45)), batch.results());
+    }
+
+    @Test
+    void onlyDepositsCreateAccounts() {
+        MutationBatch batch = new MutationBatch(List.of(
+                BalanceMutation.withdraw(first, 1),
+                BalanceMutation.remove(first, 1),
+                BalanceMutation.remove(second, 1),
+                BalanceMutation.deposit(second, 0)
+        ));
+        assertFalse(batch.createsAccount(first));
+        assertTrue(batch.createsAccount(second));
+    }
+
+    @Test
+    void defaultApplyMutationsSavesChangedAccountsInOneBatch() {
+        InMemoryStorageProvider provider = new InMemoryStorageProvider();
+        UUID untouched = new UUID(0, 3);
+        provider.balances.put(first, 100L);
+        provider.balances.put(untouched, 7L);
+
+        List<OptionalLong> results = provider.applyMutations(List.of(
+                BalanceMutation.withdraw(first, 30),
+                BalanceMutation.withdraw(second, 1), // No account, so refused and not created
+                BalanceMutation.deposit(first, 5),
+                BalanceMutation.withdraw(untouched, 8)
+        ));
+        assertEquals(List.of(OptionalLong.of(70), OptionalLong.empty(), OptionalLong.of(75), OptionalLong.empty()), results);
+        assertEquals(75L, provider.balances.get(first));
+        assertFalse(provider.balances.containsKey(second));
+        assertEquals(7L, provider.balances.get(untouched));
+        assertEquals(1, provider.batchSaves.get());
+
+        provider.applyMutations(List.of(BalanceMutation.deposit(second, 0)));
+        assertEquals(0L, provider.balances.get(second));
+    }
+}
@@ -0,0 +1,124 @@
+package com.minekarta.kec.storage.provider;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PlayerDataCodecTest {
+
+    // The tag older versions wrote; a literal, as annotation values must be constants
+    private static final String TAG = "!!com.minekarta.kec.storage.provider.PlayerData";
+
+    // Loads player files the way FileStorageProvider always has
+    private static Yaml createYaml() {
+        LoaderOptions loaderOptions = new LoaderOptions();
+        loaderOptions.setTagInspector(tag -> tag.getClassName().equals(PlayerData.class.getName()));
+        return new Yaml(new Constructor(PlayerData.class, loaderOptions));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "balance: 5\n",
+            "balance: 0\n",
+            "balance: -3\n",
+            "balance: 9223372036854775807\n",
+            "balance: 5",
+            "balance: 5\r\n",
+            "\n\nbalance: 5\n\n",
+            "  balance:   5   \n",
+            "balance: 5\t\n",
+            "balance: 5\t# A trailing comment\n",
+            TAG + "\nbalance: 5\n",
+            "---\nbalance: 5\n",
+            "--- " + TAG + "\nbalance: 5\n",
+            "---\n" + TAG + "\nbalance: 5\n",
+            "# A comment\nbalance: 5\n",
+            "balance: 5 # A trailing comment\n",
+            "balance: 010\n",
+            "balance: 0x1F\n",
+            "balance: 1_000\n",
+            "balance: +5\n",
+            "{balance: 42}\n",
+            "{ balance: 42 }",
+            "--- {balance: 42}\n",
+            "balance: 5\n...\n",
+            "balance: 5\nbalance: 6\n",
+    })
+    void decodesLikeSnakeYaml(String content) {
+        PlayerData expected = createYaml().load(content);
+        assertEquals(expected, PlayerDataCodec.decode(bytes(content), PlayerDataCodecTest::createYaml));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "balance: 9223372036854775808\n",
+            "balance: 99999999999999999999\n",
+            "balance: -9223372036854775809\n",
+            "balance:5\n",
+            "balance: five\n",
+            "balance: [5]\n",
+            "balance:\t5\n",
+            "balance: \t5\n",
+            "\tbalance: 5\n",
+            "---\t\nbalance: 5\n",
+            "balance: 5\n\t\n",
+            "owner: Steve\n",
+    })
+    void failsLikeSnakeYaml(String content) {
+        assertThrows(RuntimeException.class, () -> createYaml().load(content));
+        assertThrows(RuntimeException.class, () -> PlayerDataCodec.decode(bytes(content), PlayerDataCodecTest::createYaml));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "\n", "# Only a comment\n", "---\n"})
+    void decodesEmptyFilesAsNoData(String content) {
+        assertNull(createYaml().load(content));
+        assertNull(PlayerDataCodec.decode(bytes(content), PlayerDataCodecTest::createYaml));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "balance: 010\n",
+            "balance: 1_000\n",
+            "balance: 0x1F\n",
+            "balance: 9223372036854775807\n",
+            "{balance: 42}\n",
+            "balance:5\n",
+            "balance: 5\nbalance: 6\n",
+            "--- !!other.Type\nbalance: 5\n",
+    })
+    void leavesOtherShapesToTheFullParser(String content) {
+        assertNull(PlayerDataCodec.decodePlain(bytes(content)));
+    }
+
+    @Test
+    void skipsByteOrderMark() {
+        byte[] content = "\uFEFFbalance: 5\n".getBytes(StandardCharsets.UTF_8);
+        assertEquals(new PlayerData(5), PlayerDataCodec.decodePlain(content));
+    }
+
+    @Test
+    void encodedFilesDecodeWithoutTheFullParser() {
+        for (long balance : new long[]{0, 1, 42, 1_000_000, Long.MAX_VALUE / 10}) {
+            byte[] content = PlayerDataCodec.encode(balance);
+            PlayerData data = PlayerDataCodec.decodePlain(content);
+            assertNotNull(data);
+            assertEquals(balance, data.getBalance());
+            assertEquals(data, createYaml().load(new String(content, StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
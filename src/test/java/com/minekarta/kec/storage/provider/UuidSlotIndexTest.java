@@ -0,0 +1,95 @@
+package com.minekarta.kec.storage.provider;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UuidSlotIndexTest {
+
+    @Test
+    void putGetAndReplace() {
+        UuidSlotIndex index = new UuidSlotIndex(4);
+        index.put(1, 2, 7);
+        index.put(3, 4, 0);
+        assertEquals(7, index.get(1, 2));
+        assertEquals(0, index.get(3, 4));
+        assertEquals(-1, index.get(2, 1));
+        index.put(1, 2, 9);
+        assertEquals(9, index.get(1, 2));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void removeMissingAccount() {
+        UuidSlotIndex index = new UuidSlotIndex(4);
+        index.put(1, 2, 0);
+        assertFalse(index.remove(5, 6));
+        assertEquals(1, index.size());
+    }
+
+    /**
+     * Keeps the table at its smallest size while it is close to half full, so probe sequences
+     * collide and wrap around the end of the table, and checks every lookup after each removal.
+     */
+    @Test
+    void backwardShiftKeepsClustersReachable() {
+        Random random = new Random(4);
+        UuidSlotIndex index = new UuidSlotIndex(1);
+        Map<UUID, Integer> model = new HashMap<>();
+        List<UUID> removed = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            if (model.size() < 7 && (model.isEmpty() || random.nextBoolean())) {
+                UUID uuid = new UUID(random.nextLong(), random.nextLong());
+                model.put(uuid, i);
+                index.put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), i);
+            } else {
+                UUID uuid = new ArrayList<>(model.keySet()).get(random.nextInt(model.size()));
+                model.remove(uuid);
+                assertTrue(index.remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+                removed.add(uuid);
+                if (removed.size() > 16) {
+                    removed.remove(0);
+                }
+            }
+            assertEquals(model.size(), index.size());
+            model.forEach((uuid, slot) -> assertEquals(slot, index.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())));
+            for (UUID uuid : removed) {
+                if (!model.containsKey(uuid)) {
+                    assertEquals(-1, index.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+                }
+            }
+        }
+    }
+
+    @Test
+    void matchesModelAcrossResizes() {
+        Random random = new Random(5);
+        UuidSlotIndex index = new UuidSlotIndex(16);
+        Map<UUID, Integer> model = new HashMap<>();
+        List<UUID> known = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            if (known.isEmpty() || random.nextInt(3) > 0) {
+                UUID uuid = new UUID(random.nextLong(), random.nextLong());
+                known.add(uuid);
+                model.put(uuid, i);
+                index.put(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), i);
+            } else {
+                UUID uuid = known.get(random.nextInt(known.size()));
+                assertEquals(model.remove(uuid) != null, index.remove(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+            }
+        }
+        assertEquals(model.size(), index.size());
+        for (UUID uuid : known) {
+            assertEquals(model.getOrDefault(uuid, -1), index.get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+        }
+    }
+}